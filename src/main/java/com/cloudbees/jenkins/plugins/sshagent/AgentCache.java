@@ -0,0 +1,340 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.TaskListener;
+import hudson.model.listeners.SaveableListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.model.Nodes;
+
+/**
+ * Keeps agents loaded with some identities running after the step using them is done, so that the next step of the
+ * same job on the same node needing exactly the same identities can skip starting and loading an agent.
+ * <p>
+ * Only used when {@link SSHAgentGlobalConfiguration#isReuseAgents() enabled}. Agents are matched by node, by job and by
+ * a salted digest of the identities, so that changed credentials never match an agent loaded with their former value.
+ * A cached agent is live and may be used by concurrent builds of the job: anything one of them does to it, such as
+ * {@code ssh-add -D}, affects the others. Steps adding identities get a {@link #detach private agent} instead.
+ * Cached agents are registered with the {@link AgentReaper}, which kills those the cache forgot about, e.g. as the
+ * controller restarted.
+ */
+@Extension
+public final class AgentCache extends AsyncPeriodicWork implements AgentReaper.Owner {
+
+    private static final Logger LOGGER = Logger.getLogger(AgentCache.class.getName());
+
+    /** Cached agents by node and digest, least recently used first; guarded by {@code this}. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** All agents with references, including those already evicted; guarded by {@code this}. */
+    private final Map<String, Entry> byId = new HashMap<>();
+
+    public AgentCache() {
+        super("SSH agent cache maintenance");
+    }
+
+    @NonNull
+    static AgentCache get() {
+        return ExtensionList.lookupSingleton(AgentCache.class);
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(1);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        List<Entry> evicted;
+        synchronized (this) {
+            evicted = evict(SSHAgentGlobalConfiguration.get(), false);
+        }
+        stop(evicted);
+    }
+
+    /**
+     * Gets an agent loaded with some identities, reusing a cached one if possible.
+     *
+     * @param computer   the computer the launcher belongs to, if known.
+     * @param launcher   the launcher for the node.
+     * @param listener   for logging.
+     * @param identities the identities to load.
+     * @param ws         the workspace, for implementations which need temporary files.
+     * @param run        the run needing the agent, which is only shared with runs of the same job.
+     * @return the agent, to be {@link RemoteAgent#stop stopped} when done.
+     */
+    @NonNull
+    static RemoteAgent acquire(@CheckForNull Computer computer, @NonNull Launcher launcher, @NonNull TaskListener listener,
+                               @NonNull List<AgentIdentity> identities, @CheckForNull FilePath ws, @NonNull Run<?, ?> run)
+            throws IOException, InterruptedException {
+        return acquire(computer, launcher, listener, identities, ws, run, load -> {});
+    }
+
+    /**
+     * Gets an agent loaded with some identities, reusing a cached one if possible.
+     *
+     * @param identityLoads told the time spent loading identities, in nanoseconds, once per load; never told when
+     *                      reusing an agent.
+     * @see #acquire(Computer, Launcher, TaskListener, List, FilePath, Run)
+     */
+    @NonNull
+    static RemoteAgent acquire(@CheckForNull Computer computer, @NonNull Launcher launcher, @NonNull TaskListener listener,
+                               @NonNull List<AgentIdentity> identities, @CheckForNull FilePath ws, @NonNull Run<?, ?> run,
+                               @NonNull LongConsumer identityLoads) throws IOException, InterruptedException {
+        SSHAgentGlobalConfiguration config = SSHAgentGlobalConfiguration.get();
+        if (!config.isReuseAgents() || computer == null || identities.isEmpty()
+                || launcher instanceof Launcher.DecoratedLauncher) {
+            return start(computer, launcher, listener, identities, ws, identityLoads);
+        }
+        AgentCache cache = get();
+        // NUL cannot appear in any of these
+        String key = computer.getName() + '\0' + run.getParent().getFullName() + '\0' + AgentIdentity.digest(identities);
+        synchronized (cache) {
+            Entry entry = cache.entries.get(key);
+            if (entry != null) {
+                entry.refs++;
+                listener.getLogger().println(Messages.AgentCache_Reusing());
+                return new SharedRemoteAgent(entry.agent, entry.id);
+            }
+        }
+        RemoteAgent agent = start(computer, launcher, listener, identities, ws, identityLoads);
+        Entry entry = new Entry(agent, computer.getName(), identities);
+        List<Entry> evicted;
+        synchronized (cache) {
+            if (cache.entries.containsKey(key)) {
+                // another step loaded the same identities meanwhile, keep this agent to ourselves
+                return agent;
+            }
+            cache.entries.put(key, entry);
+            cache.byId.put(entry.id, entry);
+            evicted = cache.evict(config, false);
+        }
+        cache.stop(evicted);
+        AgentReaper.register(agent, computer, launcher, cache);
+        return new SharedRemoteAgent(agent, entry.id);
+    }
+
+    private static RemoteAgent start(@CheckForNull Computer computer, @NonNull Launcher launcher, @NonNull TaskListener listener,
+                                     @NonNull List<AgentIdentity> identities, @CheckForNull FilePath ws,
+                                     @NonNull LongConsumer identityLoads) throws IOException, InterruptedException {
+        return RemoteAgentFactory.startAgent(computer, launcher, listener, identities, ws, identityLoads);
+    }
+
+    /**
+     * Drops a reference to an agent, stopping it if it was evicted meanwhile or is not known, e.g. after a restart.
+     */
+    void release(@NonNull RemoteAgent agent, @NonNull String id, @NonNull Launcher launcher, @NonNull TaskListener listener)
+            throws IOException, InterruptedException {
+        if (release(id, listener)) {
+            agent.stop(launcher, listener);
+        }
+    }
+
+    /**
+     * Drops a reference to an agent, without stopping it.
+     *
+     * @return whether the agent is to be stopped, as it was evicted meanwhile or is not known, e.g. after a restart.
+     */
+    synchronized boolean release(@NonNull String id, @NonNull TaskListener listener) {
+        Entry entry = byId.get(id);
+        if (entry != null) {
+            entry.refs--;
+            entry.lastUsed = System.currentTimeMillis();
+            if (!entry.evicted || entry.refs > 0) {
+                listener.getLogger().println(Messages.AgentCache_Kept());
+                return false;
+            }
+            byId.remove(id);
+        }
+        return true;
+    }
+
+    /**
+     * Starts a private agent with the identities of a shared one and some more, then drops the reference to the shared
+     * one, so that other steps using it are not affected.
+     *
+     * @param agent    the shared agent.
+     * @param id       the id of its entry.
+     * @param added    the identities to load on top.
+     * @param ws       the workspace, for implementations which need temporary files.
+     * @param launcher the launcher for the node.
+     * @param listener for logging.
+     * @return the private agent, to be {@link RemoteAgent#stop stopped} when done.
+     */
+    @NonNull
+    RemoteAgent detach(@NonNull RemoteAgent agent, @NonNull String id, @NonNull List<AgentIdentity> added,
+                       @CheckForNull FilePath ws, @NonNull Launcher launcher, @NonNull TaskListener listener)
+            throws IOException, InterruptedException {
+        Entry entry;
+        synchronized (this) {
+            entry = byId.get(id);
+        }
+        if (entry == null) {
+            // e.g. after a restart, the identities of the shared agent are not known anymore
+            throw new AbortException(Messages.AgentCache_CannotDetach());
+        }
+        List<AgentIdentity> identities = new ArrayList<>(entry.identities);
+        identities.addAll(added);
+        listener.getLogger().println(Messages.AgentCache_Detaching());
+        RemoteAgent detached = start(Jenkins.get().getComputer(entry.node), launcher, listener, identities, ws, load -> {});
+        release(agent, id, launcher, listener);
+        return detached;
+    }
+
+    @Override
+    public synchronized boolean holds(@NonNull Computer computer, long pid) {
+        String value = Long.toString(pid);
+        for (Entry entry : byId.values()) {
+            if (entry.node.equals(computer.getName()) && value.equals(entry.agent.getEnv().get("SSH_AGENT_PID"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evicts entries not used for the configured time, then the least recently used ones over the configured count.
+     * Entries still referenced are only forgotten, and stopped once released.
+     *
+     * @param all whether to evict all entries, e.g. because credentials changed.
+     * @return the entries to stop.
+     */
+    private List<Entry> evict(@NonNull SSHAgentGlobalConfiguration config, boolean all) {
+        long now = System.currentTimeMillis();
+        long ttl = TimeUnit.MINUTES.toMillis(config.getReuseTimeToLive());
+        List<Entry> result = new ArrayList<>();
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            boolean expired = entry.refs == 0 && now - entry.lastUsed >= ttl;
+            boolean overflow = entries.size() > config.getReuseMaxAgents() && entry.refs == 0;
+            if (all || !config.isReuseAgents() || expired || overflow) {
+                it.remove();
+                entry.evicted = true;
+                if (entry.refs == 0) {
+                    byId.remove(entry.id);
+                    result.add(entry);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void stop(@NonNull List<Entry> evicted) {
+        if (evicted.isEmpty()) {
+            return;
+        }
+        Computer.threadPoolForRemoting.submit(() -> {
+            Jenkins jenkins = Jenkins.get();
+            for (Entry entry : evicted) {
+                Computer computer = jenkins.getComputer(entry.node);
+                Node node = computer == null ? null : computer.getNode();
+                if (node == null || computer.isOffline()) {
+                    LOGGER.log(Level.FINE, "Cannot stop cached agent on {0}, it is gone", entry.node);
+                    continue;
+                }
+                try {
+                    entry.agent.stop(node.createLauncher(TaskListener.NULL), TaskListener.NULL);
+                } catch (IOException | RuntimeException x) {
+                    LOGGER.log(Level.FINE, "Could not stop cached agent on " + entry.node, x);
+                } catch (InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        });
+    }
+
+    private static final class Entry {
+        final String id = UUID.randomUUID().toString();
+        final RemoteAgent agent;
+        final String node;
+        /** Loaded into the agent, to {@link #detach} from it. */
+        final List<AgentIdentity> identities;
+        int refs = 1;
+        long lastUsed = System.currentTimeMillis();
+        boolean evicted;
+
+        Entry(RemoteAgent agent, String node, List<AgentIdentity> identities) {
+            this.agent = agent;
+            this.node = node;
+            this.identities = List.copyOf(identities);
+        }
+    }
+
+    /**
+     * Stops cached agents whenever credentials may have changed, in any store, rather than waiting for them to expire.
+     * As with {@link CredentialResolver.Invalidator}, only builds, plain jobs and nodes being saved are ignored.
+     */
+    @Extension
+    public static final class CredentialsListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Run || (o instanceof Item && !(o instanceof ItemGroup)) || o instanceof Node || o instanceof Nodes) {
+                return;
+            }
+            AgentCache cache = get();
+            List<Entry> evicted;
+            synchronized (cache) {
+                if (cache.entries.isEmpty()) {
+                    return;
+                }
+                evicted = cache.evict(SSHAgentGlobalConfiguration.get(), true);
+            }
+            cache.stop(evicted);
+        }
+
+        @Override
+        public void onDeleted(Saveable o, XmlFile file) {
+            onChange(o, file);
+        }
+    }
+}
@@ -0,0 +1,506 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.OfflineCause;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import jenkins.security.MasterToSlaveCallable;
+import jenkins.util.SystemProperties;
+
+/**
+ * What a node offers to the {@link RemoteAgentFactory} implementations.
+ * <p>
+ * Probing runs a couple of processes on the node, so the result is cached per {@link Computer} until it goes offline.
+ */
+public final class AgentCapabilities implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = Logger.getLogger(AgentCapabilities.class.getName());
+
+    private static final Pattern OPENSSH_VERSION = Pattern.compile("OpenSSH_(\\d+)\\.(\\d+)");
+
+    /**
+     * Used when processes are not launched directly on the node, e.g. inside a container: nothing can be probed from
+     * the node JVM, so only implementations going through the {@link Launcher} may be used.
+     */
+    public static final AgentCapabilities UNPROBED = new AgentCapabilities(false, false, null, true, false, null, null, null);
+
+    /**
+     * Whether to look for a memory-backed directory on nodes, see {@link #getRuntimeDirectory()}.
+     */
+    static /* not final */ boolean RUNTIME_DIRECTORY = SystemProperties.getBoolean(AgentCapabilities.class.getName() + ".runtimeDirectory", true);
+
+    private static final Map<Computer, AgentCapabilities> CACHE = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final boolean probed;
+
+    private final boolean windows;
+
+    @CheckForNull
+    private final String openSSHVersion;
+
+    private final boolean sshAgentAvailable;
+
+    private final boolean sshAddStdin;
+
+    @CheckForNull
+    private final String socketDirectory;
+
+    @CheckForNull
+    private final String askpassHelper;
+
+    @CheckForNull
+    private final String runtimeDirectory;
+
+    AgentCapabilities(boolean probed, boolean windows, @CheckForNull String openSSHVersion, boolean sshAgentAvailable,
+                      boolean sshAddStdin, @CheckForNull String socketDirectory, @CheckForNull String askpassHelper,
+                      @CheckForNull String runtimeDirectory) {
+        this.probed = probed;
+        this.windows = windows;
+        this.openSSHVersion = openSSHVersion;
+        this.sshAgentAvailable = sshAgentAvailable;
+        this.sshAddStdin = sshAddStdin;
+        this.socketDirectory = socketDirectory;
+        this.askpassHelper = askpassHelper;
+        this.runtimeDirectory = runtimeDirectory;
+    }
+
+    /**
+     * Whether the values were actually probed on the node.
+     */
+    public boolean isProbed() {
+        return probed;
+    }
+
+    public boolean isWindows() {
+        return windows;
+    }
+
+    /**
+     * The version reported by {@code ssh -V}, e.g. {@code OpenSSH_9.6p1}, or {@code null} if OpenSSH was not found.
+     */
+    @CheckForNull
+    public String getOpenSSHVersion() {
+        return openSSHVersion;
+    }
+
+    /**
+     * Whether {@code ssh-agent} was found on the {@code PATH}.
+     */
+    public boolean isSshAgentAvailable() {
+        return sshAgentAvailable;
+    }
+
+    /**
+     * Whether {@code ssh-add -} was found to read a key from standard input.
+     */
+    public boolean isSshAddStdinSupported() {
+        return sshAddStdin;
+    }
+
+    /**
+     * Whether {@code SSH_ASKPASS_REQUIRE=force} is honoured, which makes {@code ssh-add} name the key file in each
+     * passphrase prompt; before OpenSSH 8.4 only the {@code DISPLAY} variable makes it use {@code SSH_ASKPASS}.
+     */
+    public boolean isAskpassRequireSupported() {
+        return isOpenSSHAtLeast(8, 4);
+    }
+
+    /**
+     * A directory in which the node JVM was able to bind a Unix domain socket, or {@code null} if it could not.
+     */
+    @CheckForNull
+    public String getSocketDirectory() {
+        return socketDirectory;
+    }
+
+    /**
+     * A reusable {@code SSH_ASKPASS} program printing {@code $SSH_PASSPHRASE}, or {@code null} if none could be installed.
+     */
+    @CheckForNull
+    public String getAskpassHelper() {
+        return askpassHelper;
+    }
+
+    /**
+     * A directory private to the node user, preferably memory-backed, for sockets, keys and helper scripts, or
+     * {@code null} to use the workspace and the system defaults.
+     * <p>
+     * Either set with {@link SSHAgentNodeProperty#getTempDirectory()}, or a private directory created under
+     * {@code $XDG_RUNTIME_DIR} or {@code /dev/shm}.
+     */
+    @CheckForNull
+    public String getRuntimeDirectory() {
+        return runtimeDirectory;
+    }
+
+    public boolean isOpenSSHAtLeast(int major, int minor) {
+        if (openSSHVersion == null) {
+            return false;
+        }
+        Matcher m = OPENSSH_VERSION.matcher(openSSHVersion);
+        if (!m.find()) {
+            return false;
+        }
+        int actualMajor = Integer.parseInt(m.group(1));
+        int actualMinor = Integer.parseInt(m.group(2));
+        return actualMajor > major || (actualMajor == major && actualMinor >= minor);
+    }
+
+    @Override
+    public String toString() {
+        return "AgentCapabilities{probed=" + probed + ", windows=" + windows + ", openSSHVersion=" + openSSHVersion
+                + ", sshAgentAvailable=" + sshAgentAvailable + ", sshAddStdin=" + sshAddStdin + ", socketDirectory=" + socketDirectory
+                + ", askpassHelper=" + askpassHelper + ", runtimeDirectory=" + runtimeDirectory + '}';
+    }
+
+    /**
+     * Gets the capabilities of the node a launcher runs processes on.
+     *
+     * @param computer the computer the launcher belongs to, or {@code null} if unknown, in which case the result is not cached.
+     * @param launcher the launcher which will be used to run the agent.
+     * @return the capabilities.
+     */
+    @NonNull
+    public static AgentCapabilities of(@CheckForNull Computer computer, @NonNull Launcher launcher)
+            throws IOException, InterruptedException {
+        if (launcher instanceof Launcher.DecoratedLauncher) {
+            return UNPROBED;
+        }
+        if (computer != null) {
+            AgentCapabilities cached = CACHE.get(computer);
+            if (cached != null) {
+                return configured(computer, cached);
+            }
+        }
+        VirtualChannel channel = launcher.getChannel();
+        if (channel == null) {
+            return UNPROBED;
+        }
+        AgentCapabilities result = channel.call(new Probe(RUNTIME_DIRECTORY));
+        LOGGER.log(Level.FINE, "Probed {0}: {1}", new Object[] {computer == null ? channel : computer.getName(), result});
+        if (computer != null) {
+            CACHE.put(computer, result);
+        }
+        return configured(computer, result);
+    }
+
+    /**
+     * Whether the node of a computer was probed already.
+     */
+    static boolean isCached(@NonNull Computer computer) {
+        return CACHE.containsKey(computer);
+    }
+
+    /**
+     * Applies the directory set on the node, if any, which is trusted to be suitable as is.
+     */
+    @NonNull
+    private static AgentCapabilities configured(@CheckForNull Computer computer, @NonNull AgentCapabilities probed) {
+        String configured = computer == null ? null : Util.fixEmptyAndTrim(SSHAgentNodeProperty.of(computer.getNode()).getTempDirectory());
+        if (configured == null || probed.windows || configured.equals(probed.runtimeDirectory)) {
+            return probed;
+        }
+        return new AgentCapabilities(probed.probed, probed.windows, probed.openSSHVersion, probed.sshAgentAvailable,
+                probed.sshAddStdin, configured, probed.askpassHelper, configured);
+    }
+
+    /**
+     * Runs on the node to find out what it supports.
+     */
+    private static final class Probe extends MasterToSlaveCallable<AgentCapabilities, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        /** Installed once per JVM, see {@link #askpassHelper}. */
+        private static String askpassHelper;
+
+        /** Created once per JVM, see {@link #runtimeDirectory()}. */
+        private static Path runtimeDirectory;
+
+        private final boolean lookForRuntimeDirectory;
+
+        Probe(boolean lookForRuntimeDirectory) {
+            this.lookForRuntimeDirectory = lookForRuntimeDirectory;
+        }
+
+        @Override
+        public AgentCapabilities call() throws IOException {
+            boolean windows = File.pathSeparatorChar == ';';
+            if (windows) {
+                return new AgentCapabilities(true, true, openSSHVersion(), onPath("ssh-agent.exe"), false, null, null, null);
+            }
+            Path runtime = lookForRuntimeDirectory ? runtimeDirectory() : null;
+            String socketDirectory = runtime != null && canBind(runtime) ? runtime.toString() : socketDirectory();
+            return new AgentCapabilities(true, false, openSSHVersion(), onPath("ssh-agent"), sshAddStdin(socketDirectory),
+                    socketDirectory, askpassHelper(runtime), runtime == null ? null : runtime.toString());
+        }
+
+        /**
+         * Creates a directory only readable by the node user in {@code $XDG_RUNTIME_DIR} or {@code /dev/shm}, both
+         * memory-backed on common Linux systems, so that keys never reach a disk and socket paths stay short.
+         */
+        @CheckForNull
+        private static synchronized Path runtimeDirectory() {
+            if (runtimeDirectory != null && Files.isDirectory(runtimeDirectory)) {
+                return runtimeDirectory;
+            }
+            String xdg = System.getenv("XDG_RUNTIME_DIR");
+            for (String candidate : new String[] {xdg, "/dev/shm"}) {
+                if (candidate == null || candidate.isEmpty()) {
+                    continue;
+                }
+                Path base = Path.of(candidate);
+                if (!Files.isDirectory(base) || !Files.isWritable(base)) {
+                    continue;
+                }
+                try {
+                    Path dir = Files.createTempDirectory(base, "jenkins-ssh-",
+                            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+                    dir.toFile().deleteOnExit();
+                    runtimeDirectory = dir;
+                    return dir;
+                } catch (IOException | UnsupportedOperationException x) {
+                    LOGGER.log(Level.FINE, "Cannot use " + base, x);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Writes a helper which answers the first prompt with {@code $SSH_PASSPHRASE} and gives up when told the
+         * passphrase was bad, so that loading a key does not need a script of its own.
+         */
+        @CheckForNull
+        private static synchronized String askpassHelper(@CheckForNull Path runtime) {
+            if (askpassHelper != null && Files.isExecutable(Path.of(askpassHelper))
+                    && (runtime == null || Path.of(askpassHelper).startsWith(runtime))) {
+                return askpassHelper;
+            }
+            try {
+                Path dir = runtime != null ? Files.createTempDirectory(runtime, "askpass-",
+                        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")))
+                        : Files.createTempDirectory("jenkins-ssh-askpass-",
+                        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+                Path script = dir.resolve("askpass.sh");
+                Files.writeString(script, "#!/bin/sh\ncase \"$1\" in\n  \"Bad passphrase\"*) exit 1 ;;\nesac\nprintf '%s\\n' \"$SSH_PASSPHRASE\"\n",
+                        StandardCharsets.US_ASCII);
+                Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwx------"));
+                // deleted in reverse order of registration
+                dir.toFile().deleteOnExit();
+                script.toFile().deleteOnExit();
+                askpassHelper = script.toString();
+                return askpassHelper;
+            } catch (IOException | UnsupportedOperationException x) {
+                return null;
+            }
+        }
+
+        @CheckForNull
+        private static String openSSHVersion() {
+            String output = run(List.of("ssh", "-V"), Map.of(), null);
+            if (output == null) {
+                return null;
+            }
+            output = output.trim();
+            Matcher m = OPENSSH_VERSION.matcher(output);
+            if (!m.find()) {
+                return null;
+            }
+            int end = output.indexOf(',', m.start());
+            return output.substring(m.start(), end == -1 ? output.length() : end);
+        }
+
+        /**
+         * Checks whether {@code ssh-add -} reads a key from standard input by feeding it one which is not a key.
+         * <p>
+         * Vendor builds do not always report their upstream version faithfully, so {@code ssh -V} is not relied on.
+         * As {@code ssh-add} connects to an agent before looking at its arguments, it is pointed at a socket bound
+         * for the purpose, which is never answered.
+         */
+        private static boolean sshAddStdin(@CheckForNull String socketDirectory) {
+            if (socketDirectory == null) {
+                return false;
+            }
+            try {
+                Path dir = Files.createTempDirectory(Path.of(socketDirectory), "ssh-",
+                        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+                Path socket = dir.resolve("agent.probe");
+                try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+                    server.bind(UnixDomainSocketAddress.of(socket));
+                    String output = run(List.of("ssh-add", "-"), Map.of("SSH_AUTH_SOCK", socket.toString()), "not a key\n");
+                    // e.g. 'Error loading key "(stdin)": invalid format', where older versions look for a file named -
+                    return output != null && output.contains("(stdin)");
+                } finally {
+                    Files.deleteIfExists(socket);
+                    Files.deleteIfExists(dir);
+                }
+            } catch (IOException | UnsupportedOperationException x) {
+                LOGGER.log(Level.FINE, "Could not check for ssh-add - support", x);
+                return false;
+            }
+        }
+
+        /**
+         * Runs a short-lived process, giving up on it after a few seconds.
+         *
+         * @return its combined output, or {@code null} if it could not be run or did not finish in time.
+         */
+        @CheckForNull
+        private static String run(List<String> cmds, Map<String, String> env, @CheckForNull String stdin) {
+            Process p;
+            try {
+                ProcessBuilder pb = new ProcessBuilder(cmds).redirectErrorStream(true);
+                pb.environment().putAll(env);
+                p = pb.start();
+            } catch (IOException x) {
+                return null;
+            }
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                // reading to the end would wait for the process however long it hangs
+                Thread reader = new Thread(() -> {
+                    try (InputStream in = p.getInputStream()) {
+                        in.transferTo(out);
+                    } catch (IOException x) {
+                        // destroyed
+                    }
+                }, "Probing " + cmds.get(0));
+                reader.setDaemon(true);
+                reader.start();
+                try (OutputStream os = p.getOutputStream()) {
+                    if (stdin != null) {
+                        os.write(stdin.getBytes(StandardCharsets.US_ASCII));
+                    }
+                } catch (IOException x) {
+                    // exited without reading it
+                }
+                if (!p.waitFor(10, TimeUnit.SECONDS)) {
+                    return null;
+                }
+                reader.join(TimeUnit.SECONDS.toMillis(10));
+                return out.toString(StandardCharsets.US_ASCII);
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                if (p.isAlive()) {
+                    p.destroyForcibly();
+                }
+            }
+        }
+
+        private static boolean onPath(String executable) {
+            String path = System.getenv("PATH");
+            if (path == null) {
+                return false;
+            }
+            for (String dir : path.split(File.pathSeparator)) {
+                if (!dir.isEmpty() && new File(dir, executable).canExecute()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @CheckForNull
+        private static String socketDirectory() {
+            Path dir = Path.of(System.getProperty("java.io.tmpdir"));
+            return canBind(dir) ? dir.toString() : null;
+        }
+
+        private static boolean canBind(Path dir) {
+            try {
+                Path probe = Files.createTempDirectory(dir, "ssh-");
+                try {
+                    try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+                        server.bind(UnixDomainSocketAddress.of(probe.resolve("agent.probe")));
+                    } finally {
+                        Files.deleteIfExists(probe.resolve("agent.probe"));
+                    }
+                } finally {
+                    Files.deleteIfExists(probe);
+                }
+                return true;
+            } catch (IOException | UnsupportedOperationException x) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Probes nodes as they connect and forgets about them when they disconnect.
+     */
+    @Extension
+    public static final class ComputerListenerImpl extends ComputerListener {
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            Computer.threadPoolForRemoting.submit(() -> {
+                try {
+                    Launcher launcher = c.getNode() == null ? null : c.getNode().createLauncher(listener);
+                    if (launcher != null) {
+                        of(c, launcher);
+                    }
+                } catch (IOException | InterruptedException | RuntimeException x) {
+                    LOGGER.log(Level.FINE, "Could not probe " + c.getName() + ", will retry on first use", x);
+                }
+            });
+        }
+
+        @Override
+        public void onOffline(@NonNull Computer c, @CheckForNull OfflineCause cause) {
+            CACHE.remove(c);
+        }
+    }
+}
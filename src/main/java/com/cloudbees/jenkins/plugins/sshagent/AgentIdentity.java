@@ -0,0 +1,266 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.util.Secret;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.sshd.common.NamedResource;
+import org.apache.sshd.common.config.keys.FilePasswordProvider;
+import org.apache.sshd.common.util.security.SecurityUtils;
+
+/**
+ * A private key to be loaded into a {@link RemoteAgent}.
+ * <p>
+ * Holds decrypted secrets: only pass it on to the node, never persist it. The passphrase of a credential is kept as a
+ * {@link Secret} until read through {@link #getPassphrase()} or sent to the node.
+ */
+public final class AgentIdentity implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Salt for {@link #digest}, so that the digests of keys are of no use outside of this JVM. */
+    private static final byte[] SALT = new byte[16];
+
+    static {
+        new SecureRandom().nextBytes(SALT);
+    }
+
+    @NonNull
+    private final String privateKey;
+
+    @CheckForNull
+    private final String passphrase;
+
+    /** The passphrase of the credential, unless given in plain text, see {@link #writeReplace}. */
+    @CheckForNull
+    private final transient Secret secret;
+
+    @NonNull
+    private final String comment;
+
+    public AgentIdentity(@NonNull String privateKey, @CheckForNull String passphrase, @NonNull String comment) {
+        this(privateKey, passphrase, null, comment);
+    }
+
+    private AgentIdentity(@NonNull String privateKey, @CheckForNull String passphrase, @CheckForNull Secret secret,
+                          @NonNull String comment) {
+        this.privateKey = privateKey;
+        this.passphrase = passphrase;
+        this.secret = secret;
+        this.comment = comment;
+    }
+
+    /**
+     * Only reads the {@link #secret} once the identity is sent to the node.
+     */
+    private Object writeReplace() {
+        return secret == null ? this : new AgentIdentity(privateKey, secret.getPlainText(), null, comment);
+    }
+
+    /**
+     * The private key.
+     */
+    @NonNull
+    public String getPrivateKey() {
+        return privateKey;
+    }
+
+    /**
+     * The passphrase or {@code null}.
+     */
+    @CheckForNull
+    public String getPassphrase() {
+        return secret == null ? passphrase : secret.getPlainText();
+    }
+
+    /**
+     * Whether the key has a passphrase, without reading it.
+     */
+    public boolean hasPassphrase() {
+        return secret != null || passphrase != null;
+    }
+
+    /**
+     * The comment to give to the key, also used in log messages.
+     */
+    @NonNull
+    public String getComment() {
+        return comment;
+    }
+
+    /**
+     * Whether the private key can be decrypted with the passphrase, as {@code ssh-add} will have to. Some key types
+     * {@code ssh-add} supports may not be readable here, so only trust a positive answer.
+     */
+    public boolean isReadable() {
+        try {
+            Iterable<KeyPair> keyPairs = SecurityUtils.loadKeyPairIdentities(null, NamedResource.ofName(comment),
+                    new ByteArrayInputStream(privateKey.getBytes(StandardCharsets.UTF_8)),
+                    hasPassphrase() ? FilePasswordProvider.of(getPassphrase()) : null);
+            return keyPairs != null && keyPairs.iterator().hasNext();
+        } catch (IOException | GeneralSecurityException | RuntimeException x) {
+            return false;
+        }
+    }
+
+    /**
+     * Digests the key and passphrase, e.g. to recognize an identity without keeping it around.
+     * <p>
+     * Digests are salted per JVM, so only compare digests computed by the same JVM.
+     *
+     * @return a hexadecimal digest.
+     */
+    @NonNull
+    public String getDigest() {
+        return digest(List.of(this));
+    }
+
+    /**
+     * Digests identities, in order as it matters for which key is offered first.
+     *
+     * @param identities the identities.
+     * @return a hexadecimal digest.
+     * @see #getDigest()
+     */
+    @NonNull
+    public static String digest(@NonNull List<AgentIdentity> identities) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(SALT);
+            for (AgentIdentity identity : identities) {
+                digest.update(identity.privateKey.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                if (identity.hasPassphrase()) {
+                    digest.update(identity.getPassphrase().getBytes(StandardCharsets.UTF_8));
+                }
+                digest.update((byte) 0);
+            }
+            return Util.toHexString(digest.digest());
+        } catch (NoSuchAlgorithmException x) {
+            throw new AssertionError("SHA-256 is always available", x);
+        }
+    }
+
+    /**
+     * Gets the identities for all the private keys of a credential.
+     *
+     * @param credential the credential.
+     * @return the identities in the order of {@link SSHUserPrivateKey#getPrivateKeys()}.
+     */
+    @NonNull
+    public static List<AgentIdentity> of(@NonNull SSHUserPrivateKey credential) {
+        final Secret passphrase = credential.getPassphrase();
+        String comment = SSHAgentBuildWrapper.description(credential);
+        List<AgentIdentity> result = new ArrayList<>();
+        for (String privateKey : credential.getPrivateKeys()) {
+            result.add(new AgentIdentity(privateKey, null, passphrase, comment));
+        }
+        return result;
+    }
+
+    /**
+     * Gets the identities for all the private keys of some credentials, loading each distinct key only once.
+     * <p>
+     * Keys are told apart by the fingerprint of their public key, so that a key wrapped by several credentials, or
+     * listed twice by one, is neither loaded nor offered to servers twice. With
+     * {@link SSHAgentGlobalConfiguration#isLazyIdentities() lazy identities}, keys with a passphrase and no public key
+     * in the clear are not decrypted here to find out, and so are loaded as they are.
+     *
+     * @param credentials the credentials.
+     * @param listener    to report keys found several times.
+     * @return the identities, in order of first occurrence.
+     */
+    @NonNull
+    public static List<AgentIdentity> of(@NonNull List<SSHUserPrivateKey> credentials, @NonNull TaskListener listener) {
+        List<AgentIdentity> all = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for (SSHUserPrivateKey credential : credentials) {
+            for (AgentIdentity identity : of(credential)) {
+                all.add(identity);
+                ids.add(credential.getId());
+            }
+        }
+        if (all.size() <= 1) {
+            return all;
+        }
+        boolean decrypt = !SSHAgentGlobalConfiguration.get().isLazyIdentities();
+        List<AgentIdentity> result = new ArrayList<>();
+        Map<String, Set<String>> sources = new LinkedHashMap<>();
+        Map<String, Integer> occurrences = new HashMap<>();
+        for (int i = 0; i < all.size(); i++) {
+            AgentIdentity identity = all.get(i);
+            String fingerprint = KeyFingerprints.of(identity, decrypt);
+            if (fingerprint == null) {
+                result.add(identity);
+                continue;
+            }
+            if (!sources.containsKey(fingerprint)) {
+                result.add(identity);
+            }
+            sources.computeIfAbsent(fingerprint, k -> new LinkedHashSet<>()).add(ids.get(i));
+            occurrences.merge(fingerprint, 1, Integer::sum);
+        }
+        for (Map.Entry<String, Set<String>> entry : sources.entrySet()) {
+            if (occurrences.get(entry.getKey()) > 1) {
+                listener.getLogger().println(Messages.AgentIdentity_Duplicate(entry.getKey(), String.join(", ", entry.getValue())));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the identities for all the private keys of some credentials.
+     *
+     * @param credentials the credentials.
+     * @return the identities, in order.
+     */
+    @NonNull
+    public static List<AgentIdentity> of(@NonNull List<SSHUserPrivateKey> credentials) {
+        List<AgentIdentity> result = new ArrayList<>();
+        for (SSHUserPrivateKey credential : credentials) {
+            result.addAll(of(credential));
+        }
+        return result;
+    }
+}
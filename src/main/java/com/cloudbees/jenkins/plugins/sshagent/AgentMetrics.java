@@ -0,0 +1,278 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.remoting.VirtualChannel;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.metrics.api.Metrics;
+import jenkins.model.Jenkins;
+import jenkins.model.NodeListener;
+
+/**
+ * Records how long agents take to start, load identities and stop, and how often things go wrong.
+ * <p>
+ * Metrics are published through the optional Metrics plugin, and dropped if it is not installed. Timers are named
+ * {@code ssh-agent.<phase>.duration} overall and {@code ssh-agent.<phase>.duration.<engine>.<node>} per engine and
+ * node, counters {@code ssh-agent.<event>} and {@code ssh-agent.<event>.<node>}, except for commands timing out which
+ * are counted as {@code ssh-agent.commands.timeouts}, {@code ssh-agent.commands.timeouts.<command>} and
+ * {@code ssh-agent.commands.timeouts.<command>.<node>}. In names, characters of node names other than letters, digits,
+ * {@code -} and {@code _} are replaced with {@code _}, and metrics of a node are removed along with it.
+ */
+public final class AgentMetrics {
+
+    private static final Logger LOGGER = Logger.getLogger(AgentMetrics.class.getName());
+
+    private static final String PREFIX = "ssh-agent";
+
+    /**
+     * A timed phase of the life of an agent.
+     */
+    enum Phase {
+        STARTUP("startup"),
+        STARTUP_WITH_IDENTITIES("startup-with-identities"),
+        IDENTITY_LOAD("identity-load"),
+        TEARDOWN("teardown"),
+        QUEUE_WAIT("queue-wait");
+
+        private final String name;
+
+        Phase(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * A counted failure.
+     */
+    enum Event {
+        CREDENTIALS_TIMED_OUT("credentials.timeouts"),
+        CREDENTIALS_MISSING("credentials.missing"),
+        STOP_FAILED("stop.failures"),
+        REAPED("reaped"),
+        QUEUED("queued"),
+        /** Counted through {@link #commandTimedOut}, tagged with the command as well as the node. */
+        COMMAND_TIMED_OUT("commands.timeouts");
+
+        private final String name;
+
+        Event(String name) {
+            this.name = name;
+        }
+    }
+
+    private AgentMetrics() {
+    }
+
+    /**
+     * Starts timing a phase.
+     *
+     * @return the start time, to pass to {@link #record}.
+     */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the duration of a phase.
+     *
+     * @param phase  the phase.
+     * @param engine the kind of agent, see {@link #engine}.
+     * @param node   the name of the node, see {@link #node}.
+     * @param start  as returned by {@link #start}.
+     */
+    static void record(@NonNull Phase phase, @NonNull String engine, @NonNull String node, long start) {
+        long duration = System.nanoTime() - start;
+        if (available()) {
+            String name = PREFIX + '.' + phase.name + ".duration";
+            Publisher.time(name, duration);
+            Publisher.time(name + '.' + engine + '.' + segment(node), duration);
+        }
+    }
+
+    /**
+     * Counts an event.
+     *
+     * @param event the event.
+     * @param node  the name of the node, see {@link #node}, or {@code null} if not related to a node.
+     */
+    static void count(@NonNull Event event, @CheckForNull String node) {
+        if (available()) {
+            String name = PREFIX + '.' + event.name;
+            Publisher.count(name);
+            if (node != null) {
+                Publisher.count(name + '.' + segment(node));
+            }
+        }
+    }
+
+    /**
+     * Counts a command of an agent, e.g. {@code ssh-add}, killed for taking longer than its timeout.
+     *
+     * @param command the command, usable as a segment of a metric name, e.g. {@code add}.
+     * @param channel the channel to the node the command ran on, or {@code null} if unknown.
+     */
+    public static void commandTimedOut(@NonNull String command, @CheckForNull VirtualChannel channel) {
+        if (available()) {
+            String name = PREFIX + '.' + Event.COMMAND_TIMED_OUT.name;
+            Publisher.count(name);
+            Publisher.count(name + '.' + command);
+            Publisher.count(name + '.' + command + '.' + segment(node(channel)));
+        }
+    }
+
+    /**
+     * Names the kind of an agent or factory for metrics, e.g. {@code exec} for {@code ExecRemoteAgent}.
+     */
+    @NonNull
+    static String engine(@NonNull Object agentOrFactory) {
+        String name = agentOrFactory.getClass().getSimpleName();
+        for (String suffix : new String[] {"RemoteAgentFactory", "RemoteAgent"}) {
+            if (name.endsWith(suffix) && name.length() > suffix.length()) {
+                name = name.substring(0, name.length() - suffix.length());
+                break;
+            }
+        }
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Names a node for metrics.
+     *
+     * @param computer the computer, if known.
+     */
+    @NonNull
+    static String node(@CheckForNull Computer computer) {
+        if (computer == null) {
+            return "unknown";
+        }
+        return computer.getName().isEmpty() ? "built-in" : computer.getName();
+    }
+
+    /**
+     * Names the node a launcher runs processes on for metrics.
+     */
+    @NonNull
+    static String node(@NonNull Launcher launcher) {
+        return node(launcher.getChannel());
+    }
+
+    /**
+     * Names the node at the other end of a channel for metrics.
+     */
+    @NonNull
+    static String node(@CheckForNull VirtualChannel channel) {
+        Jenkins j = Jenkins.getInstanceOrNull();
+        if (channel != null && j != null) {
+            for (Computer computer : j.getComputers()) {
+                if (computer.getChannel() == channel) {
+                    return node(computer);
+                }
+            }
+        }
+        return node((Computer) null);
+    }
+
+    /**
+     * Makes a node name usable as the last segment of a metric name.
+     */
+    @NonNull
+    static String segment(@NonNull String node) {
+        return node.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+
+    private static boolean available() {
+        Jenkins j = Jenkins.getInstanceOrNull();
+        return j != null && j.getPlugin("metrics") != null;
+    }
+
+    /**
+     * Only loaded once the Metrics plugin is known to be installed.
+     */
+    private static final class Publisher {
+
+        static void time(String name, long nanos) {
+            try {
+                Metrics.metricRegistry().timer(name).update(nanos, TimeUnit.NANOSECONDS);
+            } catch (RuntimeException x) {
+                LOGGER.log(Level.FINE, "Could not record " + name, x);
+            }
+        }
+
+        static void count(String name) {
+            try {
+                Metrics.metricRegistry().counter(name).inc();
+            } catch (RuntimeException x) {
+                LOGGER.log(Level.FINE, "Could not record " + name, x);
+            }
+        }
+
+        /**
+         * Removes the metrics of a node, but not the overall ones, whatever the node is called.
+         */
+        static void remove(String node) {
+            Set<String> overall = new HashSet<>();
+            for (Phase phase : Phase.values()) {
+                overall.add(PREFIX + '.' + phase.name + ".duration");
+            }
+            for (Event event : Event.values()) {
+                overall.add(PREFIX + '.' + event.name);
+            }
+            String suffix = '.' + segment(node);
+            String commands = PREFIX + '.' + Event.COMMAND_TIMED_OUT.name + '.';
+            try {
+                Metrics.metricRegistry().removeMatching((name, metric) ->
+                        name.startsWith(PREFIX + '.') && name.endsWith(suffix) && !overall.contains(name)
+                                // ssh-agent.commands.timeouts.<command> is overall too
+                                && !(name.startsWith(commands) && name.indexOf('.', commands.length()) < 0));
+            } catch (RuntimeException x) {
+                LOGGER.log(Level.FINE, "Could not remove metrics of " + node, x);
+            }
+        }
+    }
+
+    /**
+     * Drops the metrics of deleted nodes, so that ephemeral cloud agents do not pile up.
+     */
+    @Extension
+    public static final class NodeListenerImpl extends NodeListener {
+        @Override
+        protected void onDeleted(@NonNull Node node) {
+            if (available()) {
+                Publisher.remove(node.getNodeName());
+            }
+        }
+    }
+}
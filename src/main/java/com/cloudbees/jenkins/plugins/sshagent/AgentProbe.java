@@ -0,0 +1,141 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Asks a running agent which keys it holds, straight over its socket rather than by running {@code ssh-add -l}.
+ */
+final class AgentProbe {
+
+    private static final byte SSH2_AGENTC_REQUEST_IDENTITIES = 11;
+
+    private static final byte SSH2_AGENT_IDENTITIES_ANSWER = 12;
+
+    /** Larger answers are not expected from a sane agent. */
+    private static final int MAX_ANSWER = 256 * 1024;
+
+    private AgentProbe() {
+    }
+
+    /**
+     * Runs on the node to list the keys held by an agent.
+     * <p>
+     * Returns the {@code SHA256:} fingerprints of the keys, as computed by {@link KeyFingerprints}, or {@code null}
+     * if nothing listens on the socket anymore.
+     */
+    static final class RequestIdentities extends MasterToSlaveCallable<List<String>, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String socket;
+
+        RequestIdentities(@NonNull String socket) {
+            this.socket = socket;
+        }
+
+        @CheckForNull
+        @Override
+        public List<String> call() throws IOException {
+            Path path = Path.of(socket);
+            if (!Files.exists(path)) {
+                return null;
+            }
+            try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+                try {
+                    channel.connect(UnixDomainSocketAddress.of(path));
+                } catch (ConnectException x) {
+                    // a socket file left behind by a dead agent
+                    return null;
+                }
+                ByteBuffer request = ByteBuffer.allocate(5).putInt(1).put(SSH2_AGENTC_REQUEST_IDENTITIES).flip();
+                while (request.hasRemaining()) {
+                    channel.write(request);
+                }
+                int length = read(channel, 4).getInt();
+                if (length <= 0 || length > MAX_ANSWER) {
+                    throw new IOException("Unexpected answer length " + length);
+                }
+                ByteBuffer answer = read(channel, length);
+                if (answer.get() != SSH2_AGENT_IDENTITIES_ANSWER) {
+                    throw new IOException("Unexpected answer from " + socket);
+                }
+                int count = answer.getInt();
+                List<String> fingerprints = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    byte[] blob = string(answer);
+                    string(answer); // comment
+                    fingerprints.add(fingerprint(blob));
+                }
+                return fingerprints;
+            }
+        }
+
+        private static ByteBuffer read(SocketChannel channel, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException();
+                }
+            }
+            return buffer.flip();
+        }
+
+        private static byte[] string(ByteBuffer buffer) throws IOException {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IOException("Bad length " + length);
+            }
+            byte[] result = new byte[length];
+            buffer.get(result);
+            return result;
+        }
+
+        private static String fingerprint(byte[] blob) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(blob);
+                return "SHA256:" + Base64.getEncoder().withoutPadding().encodeToString(digest);
+            } catch (NoSuchAlgorithmException x) {
+                throw new AssertionError("SHA-256 is always available", x);
+            }
+        }
+    }
+}
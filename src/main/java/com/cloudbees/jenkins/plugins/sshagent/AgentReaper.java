@@ -0,0 +1,450 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.slaves.ComputerListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Kills {@code ssh-agent} processes left behind by builds, e.g. as the controller crashed, the node disconnected
+ * mid-build or {@code ssh-agent -k} failed.
+ * <p>
+ * Each agent started for a build is registered in a directory under the root of its node, tagged with the owning run.
+ * Agents whose run is gone or done are killed periodically, and as soon as their node reconnects. Agents held beyond a
+ * run, by the {@link AgentCache} or by a pool of pre-started agents, are tagged with an {@link Owner} instead, and
+ * killed once it does not hold them anymore, e.g. after a controller restart.
+ */
+@Extension
+public final class AgentReaper extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(AgentReaper.class.getName());
+
+    /**
+     * Directory under the root of nodes where agents are registered.
+     */
+    static final String DIRECTORY = "ssh-agents";
+
+    /**
+     * Whether agents are registered and orphans killed.
+     */
+    static /* not final */ boolean ENABLED = SystemProperties.getBoolean(AgentReaper.class.getName() + ".enabled", true);
+
+    /**
+     * Minutes between two sweeps of all nodes.
+     */
+    static /* not final */ long RECURRENCE = SystemProperties.getLong(AgentReaper.class.getName() + ".recurrence", 15L);
+
+    /**
+     * Minutes after the end of a run before its agents are considered left behind.
+     */
+    static /* not final */ long GRACE = SystemProperties.getLong(AgentReaper.class.getName() + ".grace", 5L);
+
+    public AgentReaper() {
+        super("SSH agent reaper");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(RECURRENCE);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        if (!ENABLED) {
+            return;
+        }
+        for (Computer computer : Jenkins.get().getComputers()) {
+            if (computer.isOnline()) {
+                try {
+                    reap(computer);
+                } catch (IOException | RuntimeException x) {
+                    LOGGER.log(Level.FINE, "Could not look for orphaned agents on " + computer.getName(), x);
+                } catch (InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers an agent started for a run, without waiting for it.
+     * <p>
+     * Only agents with a process of their own started straight on the node are registered: others either go away
+     * with the remoting connection, or run where the node JVM cannot see them, e.g. inside a container. Agents shared
+     * through the {@link AgentCache} stay registered to it, as they outlive the run.
+     *
+     * @param agent    the agent.
+     * @param computer the computer running it, if known.
+     * @param launcher the launcher it was started with.
+     * @param run      the run owning it.
+     */
+    static void register(@NonNull RemoteAgent agent, @CheckForNull Computer computer, @NonNull Launcher launcher,
+                         @NonNull Run<?, ?> run) {
+        if (agent instanceof SharedRemoteAgent) {
+            return;
+        }
+        register(agent, computer, launcher, run.getExternalizableId(), null);
+    }
+
+    /**
+     * Registers an agent held beyond a run, without waiting for it.
+     *
+     * @param agent    the agent.
+     * @param computer the computer running it, if known.
+     * @param launcher the launcher it was started with.
+     * @param owner    what holds it.
+     * @see #register(RemoteAgent, Computer, Launcher, Run)
+     */
+    public static void register(@NonNull RemoteAgent agent, @CheckForNull Computer computer, @NonNull Launcher launcher,
+                                @NonNull Owner owner) {
+        register(agent, computer, launcher, null, owner.getClass().getName());
+    }
+
+    private static void register(@NonNull RemoteAgent agent, @CheckForNull Computer computer, @NonNull Launcher launcher,
+                                 @CheckForNull String run, @CheckForNull String owner) {
+        String pid = agent.getEnv().get("SSH_AGENT_PID");
+        if (!ENABLED || pid == null || computer == null
+                || launcher instanceof Launcher.DecoratedLauncher || !launcher.isUnix()) {
+            return;
+        }
+        FilePath directory = directory(computer);
+        if (directory == null) {
+            return;
+        }
+        String socket = agent.getEnv().get("SSH_AUTH_SOCK");
+        Computer.threadPoolForRemoting.submit(() -> {
+            try {
+                directory.act(new Register(pid, socket, run, owner));
+            } catch (IOException | InterruptedException | RuntimeException x) {
+                LOGGER.log(Level.FINE, "Could not register agent " + pid + " of " + (run != null ? run : owner), x);
+            }
+        });
+    }
+
+    /**
+     * Kills the agents of a node whose run is gone or done, or whose owner does not hold them anymore.
+     *
+     * @return the number of agents killed.
+     */
+    static int reap(@NonNull Computer computer) throws IOException, InterruptedException {
+        FilePath directory = directory(computer);
+        if (directory == null || !directory.isDirectory()) {
+            return 0;
+        }
+        List<Entry> orphans = new ArrayList<>();
+        for (Entry entry : directory.act(new ListEntries())) {
+            if (entry.run != null ? isOrphan(entry.run) : !isHeld(entry.owner, computer, entry.pid)) {
+                orphans.add(entry);
+            }
+        }
+        if (orphans.isEmpty()) {
+            return 0;
+        }
+        int reaped = directory.act(new Kill(orphans));
+        if (reaped > 0) {
+            LOGGER.log(Level.INFO, "Killed {0} orphaned ssh-agent processes on {1}", new Object[] {reaped, AgentMetrics.node(computer)});
+        }
+        for (int i = 0; i < reaped; i++) {
+            AgentMetrics.count(AgentMetrics.Event.REAPED, AgentMetrics.node(computer));
+        }
+        return reaped;
+    }
+
+    /**
+     * Whether the run owning an agent is gone, or done for long enough that {@link AgentTeardown} is too.
+     */
+    private static boolean isOrphan(@NonNull String id) {
+        Run<?, ?> run;
+        try (ACLContext context = ACL.as2(ACL.SYSTEM2)) {
+            run = Run.fromExternalizableId(id);
+        }
+        if (run == null) {
+            return true;
+        }
+        if (run.isLogUpdated()) {
+            return false;
+        }
+        long completed = run.getStartTimeInMillis() + run.getDuration();
+        return System.currentTimeMillis() - completed > TimeUnit.MINUTES.toMillis(GRACE);
+    }
+
+    /**
+     * Whether the owner of an agent still holds it.
+     */
+    private static boolean isHeld(@NonNull String owner, @NonNull Computer computer, long pid) {
+        for (Owner candidate : ExtensionList.lookup(Owner.class)) {
+            if (candidate.getClass().getName().equals(owner)) {
+                return candidate.holds(computer, pid);
+            }
+        }
+        return false;
+    }
+
+    @CheckForNull
+    private static FilePath directory(@NonNull Computer computer) {
+        Node node = computer.getNode();
+        FilePath root = node == null ? null : node.getRootPath();
+        return root == null ? null : root.child(DIRECTORY);
+    }
+
+    /**
+     * An agent registered on a node.
+     */
+    static final class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final long pid;
+
+        /** When the process started, so that a reused PID is not mistaken for the agent. */
+        final long started;
+
+        @CheckForNull
+        final String socket;
+
+        /** {@link Run#getExternalizableId() Id} of the owning run, unless held by an {@link #owner}. */
+        @CheckForNull
+        final String run;
+
+        /** Class name of the {@link Owner} holding the agent, unless owned by a {@link #run}. */
+        @CheckForNull
+        final String owner;
+
+        Entry(long pid, long started, @CheckForNull String socket, @CheckForNull String run, @CheckForNull String owner) {
+            this.pid = pid;
+            this.started = started;
+            this.socket = socket;
+            this.run = run;
+            this.owner = owner;
+        }
+
+        /**
+         * The agent process, if still running.
+         */
+        Optional<ProcessHandle> process() {
+            return ProcessHandle.of(pid).filter(p -> p.info().startInstant().map(Instant::toEpochMilli).orElse(-1L) == started);
+        }
+
+        static File file(File directory, long pid) {
+            return new File(directory, pid + ".properties");
+        }
+    }
+
+    private static final class Register extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final String pid;
+
+        private final String socket;
+
+        private final String run;
+
+        private final String owner;
+
+        Register(String pid, String socket, String run, String owner) {
+            this.pid = pid;
+            this.socket = socket;
+            this.run = run;
+            this.owner = owner;
+        }
+
+        @Override
+        public Void invoke(File directory, VirtualChannel channel) throws IOException {
+            long id = Long.parseLong(pid.trim());
+            Optional<Instant> started = ProcessHandle.of(id).flatMap(p -> p.info().startInstant());
+            if (started.isEmpty()) {
+                // already gone, or no way to tell it from a later process with the same PID
+                return null;
+            }
+            Files.createDirectories(directory.toPath());
+            Properties properties = new Properties();
+            properties.setProperty("pid", Long.toString(id));
+            properties.setProperty("started", Long.toString(started.get().toEpochMilli()));
+            if (socket != null) {
+                properties.setProperty("socket", socket);
+            }
+            if (run != null) {
+                properties.setProperty("run", run);
+            } else {
+                properties.setProperty("owner", owner);
+            }
+            try (OutputStream out = Files.newOutputStream(Entry.file(directory, id).toPath())) {
+                properties.store(out, null);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Lists the registered agents still running, forgetting about the others.
+     */
+    private static final class ListEntries extends MasterToSlaveFileCallable<List<Entry>> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public List<Entry> invoke(File directory, VirtualChannel channel) throws IOException {
+            List<Entry> result = new ArrayList<>();
+            File[] files = directory.listFiles((dir, name) -> name.endsWith(".properties"));
+            if (files == null) {
+                return result;
+            }
+            for (File file : files) {
+                Entry entry = read(file);
+                if (entry != null && entry.process().isPresent()) {
+                    result.add(entry);
+                } else {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+            return result;
+        }
+
+        @CheckForNull
+        private static Entry read(File file) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                properties.load(in);
+                String run = properties.getProperty("run");
+                String owner = properties.getProperty("owner");
+                if (run == null && owner == null) {
+                    return null;
+                }
+                return new Entry(Long.parseLong(properties.getProperty("pid")), Long.parseLong(properties.getProperty("started")),
+                        properties.getProperty("socket"), run, owner);
+            } catch (IOException | RuntimeException x) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Kills agents and removes their sockets.
+     */
+    private static final class Kill extends MasterToSlaveFileCallable<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Entry> entries;
+
+        Kill(List<Entry> entries) {
+            this.entries = new ArrayList<>(entries);
+        }
+
+        /**
+         * @return the number of processes killed.
+         */
+        @Override
+        public Integer invoke(File directory, VirtualChannel channel) throws IOException {
+            int killed = 0;
+            for (Entry entry : entries) {
+                Optional<ProcessHandle> process = entry.process();
+                if (process.isPresent() && process.get().destroy()) {
+                    killed++;
+                }
+                if (entry.socket != null) {
+                    // ssh-agent cleans up when terminated, unless it was killed harder before
+                    Path socket = Path.of(entry.socket);
+                    try {
+                        Files.deleteIfExists(socket);
+                        if (socket.getParent() != null && socket.getParent().getFileName().toString().startsWith("ssh-")) {
+                            Files.deleteIfExists(socket.getParent());
+                        }
+                    } catch (IOException x) {
+                        // e.g. the directory is not empty yet as the agent is still exiting
+                    }
+                }
+                Files.deleteIfExists(Entry.file(directory, entry.pid).toPath());
+            }
+            return killed;
+        }
+    }
+
+    /**
+     * Holds agents beyond a single run, e.g. a pool of pre-started agents. Implementations must be extensions, so that
+     * they can be found again from the class name recorded on the node.
+     */
+    public interface Owner {
+
+        /**
+         * Whether an agent registered by this owner is still held by it. Called for every such agent when looking for
+         * orphans, so should not block.
+         *
+         * @param computer the computer running the agent.
+         * @param pid      the process ID of the agent.
+         * @return {@code false} to have the agent killed.
+         */
+        boolean holds(@NonNull Computer computer, long pid);
+    }
+
+    /**
+     * Reaps as soon as a node reconnects, as that is when agents of builds which were running on it are left behind.
+     */
+    @Extension
+    public static final class ComputerListenerImpl extends ComputerListener {
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            if (!ENABLED) {
+                return;
+            }
+            Computer.threadPoolForRemoting.submit(() -> {
+                try {
+                    reap(c);
+                } catch (IOException | InterruptedException | RuntimeException x) {
+                    LOGGER.log(Level.FINE, "Could not look for orphaned agents on " + c.getName(), x);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+
+/**
+ * Stops agents in the background, so that the end of a {@code sshagent} block or of a build does not wait for it.
+ * <p>
+ * Failed attempts are retried. As the build log may be closed by then, remaining failures are logged and recorded on
+ * the run with an {@link AgentTeardownAction}.
+ */
+final class AgentTeardown {
+
+    private static final Logger LOGGER = Logger.getLogger(AgentTeardown.class.getName());
+
+    /**
+     * Whether to stop agents in the background, rather than before the block or build completes.
+     */
+    static /* not final */ boolean ASYNC = SystemProperties.getBoolean(AgentTeardown.class.getName() + ".async", true);
+
+    /**
+     * Number of attempts to stop an agent.
+     */
+    static /* not final */ int ATTEMPTS = SystemProperties.getInteger(AgentTeardown.class.getName() + ".attempts", 3);
+
+    private AgentTeardown() {
+    }
+
+    /**
+     * Stops an agent.
+     * <p>
+     * A {@link SharedRemoteAgent} is released right away, logging whether it was kept; only an agent which really has
+     * to be stopped, as it was detached from or evicted by the cache, is stopped in the background.
+     *
+     * @param agent    the agent.
+     * @param launcher the launcher for the node running the agent.
+     * @param run      the run to record failures on, if known.
+     * @param listener for logging, only used before returning.
+     * @return completed once the agent is stopped or given up on.
+     */
+    @NonNull
+    static CompletableFuture<Void> stop(@NonNull RemoteAgent agent, @NonNull Launcher launcher, @CheckForNull Run<?, ?> run,
+                                        @NonNull TaskListener listener) throws IOException, InterruptedException {
+        if (agent instanceof SharedRemoteAgent) {
+            RemoteAgent released = ((SharedRemoteAgent) agent).release(listener);
+            if (released == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            agent = released;
+        }
+        reportUnused(agent, launcher, listener);
+        if (!ASYNC) {
+            long start = AgentMetrics.start();
+            try {
+                agent.stop(launcher, listener);
+            } catch (IOException | RuntimeException x) {
+                AgentMetrics.count(AgentMetrics.Event.STOP_FAILED, AgentMetrics.node(launcher));
+                throw x;
+            }
+            AgentMetrics.record(AgentMetrics.Phase.TEARDOWN, AgentMetrics.engine(agent), AgentMetrics.node(launcher), start);
+            listener.getLogger().println(Messages.SSHAgentBuildWrapper_Stopped());
+            return CompletableFuture.completedFuture(null);
+        }
+        listener.getLogger().println(Messages.AgentTeardown_Stopping());
+        return CompletableFuture.runAsync(() -> stopWithRetries(agent, launcher, run), Computer.threadPoolForRemoting);
+    }
+
+    /**
+     * Tells which keys were loaded for nothing, while the build log is still open.
+     */
+    private static void reportUnused(@NonNull RemoteAgent agent, @NonNull Launcher launcher, @NonNull TaskListener listener)
+            throws InterruptedException {
+        try {
+            List<String> unused = agent.getUnusedIdentities(launcher);
+            if (unused != null && !unused.isEmpty()) {
+                listener.getLogger().println(Messages.AgentTeardown_Unused(String.join(", ", unused)));
+            }
+        } catch (IOException | RuntimeException x) {
+            LOGGER.log(Level.FINE, "Could not tell which keys were used", x);
+        }
+    }
+
+    private static void stopWithRetries(@NonNull RemoteAgent agent, @NonNull Launcher launcher, @CheckForNull Run<?, ?> run) {
+        long start = AgentMetrics.start();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                agent.stop(launcher, TaskListener.NULL);
+                AgentMetrics.record(AgentMetrics.Phase.TEARDOWN, AgentMetrics.engine(agent), AgentMetrics.node(launcher), start);
+                return;
+            } catch (IOException | RuntimeException x) {
+                if (attempt >= ATTEMPTS) {
+                    AgentMetrics.count(AgentMetrics.Event.STOP_FAILED, AgentMetrics.node(launcher));
+                    LOGGER.log(Level.WARNING, "Could not stop agent of " + (run == null ? "unknown build" : run.getExternalizableId())
+                            + " after " + attempt + " attempts", x);
+                    if (run != null) {
+                        AgentTeardownAction.record(run, x);
+                    }
+                    return;
+                }
+                LOGGER.log(Level.FINE, "Could not stop agent, retrying", x);
+                try {
+                    TimeUnit.SECONDS.sleep(1L << (attempt - 1));
+                } catch (InterruptedException x2) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records agents which could not be stopped once their block or build was done.
+ */
+public class AgentTeardownAction extends InvisibleAction {
+
+    private static final Logger LOGGER = Logger.getLogger(AgentTeardownAction.class.getName());
+
+    private final List<String> failures = new ArrayList<>();
+
+    /**
+     * The reasons agents could not be stopped.
+     */
+    @NonNull
+    public synchronized List<String> getFailures() {
+        return new ArrayList<>(failures);
+    }
+
+    static void record(@NonNull Run<?, ?> run, @NonNull Exception failure) {
+        AgentTeardownAction action;
+        synchronized (AgentTeardownAction.class) {
+            action = run.getAction(AgentTeardownAction.class);
+            if (action == null) {
+                action = new AgentTeardownAction();
+                run.addAction(action);
+            }
+        }
+        synchronized (action) {
+            action.failures.add(failure.getMessage() == null ? failure.toString() : failure.getMessage());
+        }
+        try {
+            run.save();
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "Could not save " + run, x);
+        }
+    }
+}
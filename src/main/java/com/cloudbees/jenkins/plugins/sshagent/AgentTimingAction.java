@@ -0,0 +1,283 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+import hudson.model.Run;
+import hudson.util.CopyOnWriteList;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.RunAction2;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Shows where the time went in each {@code sshagent} block or build environment of a run.
+ *
+ * @see AgentTimingTrendAction
+ */
+public class AgentTimingAction implements RunAction2 {
+
+    private static final Logger LOGGER = Logger.getLogger(AgentTimingAction.class.getName());
+
+    /**
+     * Seconds to wait for more timings before saving a completed run, so that blocks tearing down together cause a
+     * single save.
+     */
+    static /* not final */ long SAVE_DELAY = SystemProperties.getLong(AgentTimingAction.class.getName() + ".saveDelay", 5L);
+
+    /** Runs with a save scheduled. */
+    private static final Set<Run<?, ?>> SAVING = ConcurrentHashMap.newKeySet();
+
+    /** Copied on write, so that the run can be saved while blocks are added. */
+    private final CopyOnWriteList<Block> blocks = new CopyOnWriteList<>();
+
+    private transient Run<?, ?> run;
+
+    /**
+     * Starts recording the timings of a block.
+     *
+     * @param run   the run.
+     * @param label describes the block.
+     * @return the block, to record timings in.
+     */
+    @NonNull
+    static Block begin(@NonNull Run<?, ?> run, @NonNull String label) {
+        AgentTimingAction action;
+        synchronized (AgentTimingAction.class) {
+            action = run.getAction(AgentTimingAction.class);
+            if (action == null) {
+                action = new AgentTimingAction();
+                run.addAction(action);
+            }
+        }
+        Block block = new Block(label);
+        action.blocks.add(block);
+        return block;
+    }
+
+    /**
+     * Saves timings recorded after the run would have saved them, e.g. those of background teardowns.
+     * <p>
+     * Nothing is done while the run is still going, as it is saved once complete anyway; otherwise, saves requested
+     * within {@link #SAVE_DELAY} are coalesced.
+     */
+    static void save(@CheckForNull Run<?, ?> run) {
+        if (run == null || run.isLogUpdated() || !SAVING.add(run)) {
+            return;
+        }
+        Timer.get().schedule(() -> {
+            SAVING.remove(run);
+            try {
+                run.save();
+            } catch (IOException x) {
+                LOGGER.log(Level.WARNING, "Could not save " + run, x);
+            }
+        }, SAVE_DELAY, TimeUnit.SECONDS);
+    }
+
+    @CheckForNull
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    /**
+     * The blocks, in the order they started.
+     */
+    @NonNull
+    public List<Block> getBlocks() {
+        return new ArrayList<>(blocks.getView());
+    }
+
+    /**
+     * Time spent in all blocks, in milliseconds, by phase.
+     */
+    @NonNull
+    public Block getTotal() {
+        long credentials = -1;
+        long startup = -1;
+        long identityLoad = -1;
+        long teardown = -1;
+        for (Block block : blocks) {
+            credentials = sum(credentials, block.getCredentials());
+            startup = sum(startup, block.getStartup());
+            identityLoad = sum(identityLoad, block.getIdentityLoad());
+            teardown = sum(teardown, block.getTeardown());
+        }
+        return new Block(Messages.AgentTimingAction_Total(), credentials, startup, identityLoad, teardown);
+    }
+
+    private static long sum(long a, long b) {
+        if (a < 0) {
+            return b;
+        }
+        return b < 0 ? a : a + b;
+    }
+
+    /**
+     * Formats a duration for display.
+     *
+     * @param millis the duration, or a negative value if unknown.
+     */
+    @NonNull
+    public static String format(long millis) {
+        return millis < 0 ? "-" : Util.getTimeSpanString(millis);
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "symbol-analytics";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.AgentTimingAction_DisplayName();
+    }
+
+    @Override
+    public String getUrlName() {
+        return "sshAgentTimings";
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        run = r;
+    }
+
+    /**
+     * Timings of one {@code sshagent} block or build environment, in milliseconds; negative if not (yet) known.
+     */
+    public static final class Block {
+
+        private final String label;
+
+        private long credentials = -1;
+
+        private long startup = -1;
+
+        private long teardown = -1;
+
+        /** Copied on write, so that the run can be saved while identities are loaded. */
+        private final CopyOnWriteList<Long> identityLoads = new CopyOnWriteList<>();
+
+        Block(@NonNull String label) {
+            this.label = label;
+        }
+
+        Block(@NonNull String label, long credentials, long startup, long identityLoad, long teardown) {
+            this.label = label;
+            this.credentials = credentials;
+            this.startup = startup;
+            if (identityLoad >= 0) {
+                identityLoads.add(identityLoad);
+            }
+            this.teardown = teardown;
+        }
+
+        @NonNull
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Time spent looking up credentials.
+         */
+        public synchronized long getCredentials() {
+            return credentials;
+        }
+
+        /**
+         * Time spent starting the agent, including loading identities when both happened at once.
+         */
+        public synchronized long getStartup() {
+            return startup;
+        }
+
+        /**
+         * Time spent in each separate loading of identities.
+         */
+        @NonNull
+        public List<Long> getIdentityLoads() {
+            return new ArrayList<>(identityLoads.getView());
+        }
+
+        /**
+         * Total time spent loading identities.
+         */
+        public long getIdentityLoad() {
+            if (identityLoads.isEmpty()) {
+                return -1;
+            }
+            long sum = 0;
+            for (long load : identityLoads) {
+                sum += load;
+            }
+            return sum;
+        }
+
+        /**
+         * Time spent stopping the agent, including retries.
+         */
+        public synchronized long getTeardown() {
+            return teardown;
+        }
+
+        /**
+         * Time spent in all known phases.
+         */
+        public synchronized long getTotal() {
+            return Math.max(credentials, 0) + Math.max(startup, 0) + Math.max(getIdentityLoad(), 0) + Math.max(teardown, 0);
+        }
+
+        synchronized void credentials(long nanos) {
+            credentials = TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        synchronized void startup(long nanos) {
+            startup = TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        void identityLoad(long nanos) {
+            identityLoads.add(TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+
+        synchronized void teardown(long nanos) {
+            teardown = TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+    }
+}
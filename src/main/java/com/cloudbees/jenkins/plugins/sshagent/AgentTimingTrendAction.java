@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Job;
+import hudson.model.Run;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import jenkins.model.TransientActionFactory;
+import jenkins.util.SystemProperties;
+
+/**
+ * Shows the {@link AgentTimingAction timings} of the recent builds of a job.
+ */
+public class AgentTimingTrendAction implements Action {
+
+    /**
+     * Number of recent builds to show.
+     */
+    static /* not final */ int BUILDS = SystemProperties.getInteger(AgentTimingTrendAction.class.getName() + ".builds", 25);
+
+    private final Job<?, ?> job;
+
+    AgentTimingTrendAction(@NonNull Job<?, ?> job) {
+        this.job = job;
+    }
+
+    @NonNull
+    public Job<?, ?> getJob() {
+        return job;
+    }
+
+    /**
+     * The timings of the recent builds which used an agent, newest first.
+     */
+    @NonNull
+    public List<AgentTimingAction> getBuilds() {
+        List<AgentTimingAction> result = new ArrayList<>();
+        int seen = 0;
+        for (Run<?, ?> run = job.getLastBuild(); run != null && seen < BUILDS; run = run.getPreviousBuild(), seen++) {
+            AgentTimingAction action = run.getAction(AgentTimingAction.class);
+            if (action != null) {
+                result.add(action);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The average time per build, in milliseconds, by phase.
+     */
+    @NonNull
+    public AgentTimingAction.Block getAverage() {
+        List<AgentTimingAction> builds = getBuilds();
+        long[] sums = new long[4];
+        int[] counts = new int[4];
+        for (AgentTimingAction build : builds) {
+            AgentTimingAction.Block total = build.getTotal();
+            long[] values = {total.getCredentials(), total.getStartup(), total.getIdentityLoad(), total.getTeardown()};
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] >= 0) {
+                    sums[i] += values[i];
+                    counts[i]++;
+                }
+            }
+        }
+        long[] averages = new long[4];
+        for (int i = 0; i < averages.length; i++) {
+            averages[i] = counts[i] == 0 ? -1 : sums[i] / counts[i];
+        }
+        return new AgentTimingAction.Block(Messages.AgentTimingTrendAction_Average(), averages[0], averages[1], averages[2], averages[3]);
+    }
+
+    @NonNull
+    public String format(long millis) {
+        return AgentTimingAction.format(millis);
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "symbol-analytics";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.AgentTimingAction_DisplayName();
+    }
+
+    @Override
+    public String getUrlName() {
+        return "sshAgentTimings";
+    }
+
+    /**
+     * Adds the trend to jobs whose last build used an agent.
+     */
+    @Extension
+    public static final class Factory extends TransientActionFactory<Job> {
+
+        @Override
+        public Class<Job> type() {
+            return Job.class;
+        }
+
+        @NonNull
+        @Override
+        public Collection<? extends Action> createFor(@NonNull Job target) {
+            Run<?, ?> last = target.getLastBuild();
+            if (last == null || last.getAction(AgentTimingAction.class) == null) {
+                return Collections.emptySet();
+            }
+            return Collections.singleton(new AgentTimingTrendAction(target));
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
+import com.cloudbees.plugins.credentials.CredentialsParameterValue;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Node;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.model.queue.Tasks;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.Jenkins;
+import jenkins.model.Nodes;
+import jenkins.util.ClassLoaderSanityThreadFactory;
+import jenkins.util.ContextResettingExecutorService;
+import jenkins.util.SystemProperties;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Looks up the credentials of a run, remembering recent results for a little while.
+ * <p>
+ * Several credentials are looked up concurrently, as providers backed by remote services may each take a while.
+ * <p>
+ * Results are keyed by job, credentials ID and the authentication credentials are looked up as, so a result is never
+ * served to a job or authentication which did not find it itself. Anything which may change what a lookup finds being
+ * saved, from a credentials store to a folder, drops all results; the time to live covers providers outside Jenkins.
+ */
+final class CredentialResolver {
+
+    /**
+     * Seconds to remember a lookup for, {@code 0} not to remember any.
+     */
+    static /* not final */ int TTL = SystemProperties.getInteger(CredentialResolver.class.getName() + ".ttl", 60);
+
+    /**
+     * Maximum number of lookups running at the same time, across all builds.
+     */
+    static /* not final */ int PARALLELISM = SystemProperties.getInteger(CredentialResolver.class.getName() + ".parallelism", 8);
+
+    /**
+     * Seconds to wait for all the lookups of a block.
+     */
+    static /* not final */ int DEADLINE = SystemProperties.getInteger(CredentialResolver.class.getName() + ".deadline", 60);
+
+    private static final int MAX_ENTRIES = 1000;
+
+    private static ExecutorService executor;
+
+    /** Guarded by the class, least recently used first. */
+    private static final Map<String, Entry> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private CredentialResolver() {
+    }
+
+    /**
+     * Finds credentials as {@link CredentialsProvider#findCredentialById(String, Class, Run, com.cloudbees.plugins.credentials.domains.DomainRequirement...)}
+     * would, and {@link CredentialsProvider#track(Run, com.cloudbees.plugins.credentials.Credentials) tracks} their use.
+     *
+     * @param id  the credentials ID.
+     * @param run the run using the credentials.
+     * @return the credentials or {@code null} if not found.
+     */
+    @CheckForNull
+    static SSHUserPrivateKey find(@NonNull String id, @NonNull Run<?, ?> run) {
+        String key = TTL > 0 && !hasCredentialsParameters(run) ? key(id, run) : null;
+        SSHUserPrivateKey result = null;
+        if (key != null) {
+            synchronized (CredentialResolver.class) {
+                Entry entry = CACHE.get(key);
+                if (entry != null && entry.expires > System.currentTimeMillis()) {
+                    result = entry.credentials;
+                }
+            }
+        }
+        if (result == null) {
+            result = CredentialsProvider.findCredentialById(id, SSHUserPrivateKey.class, run);
+            if (result != null && key != null) {
+                synchronized (CredentialResolver.class) {
+                    CACHE.put(key, new Entry(result, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TTL)));
+                }
+            }
+        }
+        CredentialsProvider.track(run, result);
+        return result;
+    }
+
+    /**
+     * Finds several credentials concurrently, as {@link #find} would.
+     *
+     * @param ids the credentials IDs.
+     * @param run the run using the credentials.
+     * @return the credentials, or {@code null} for those not found, in the order of the IDs.
+     * @throws AbortException if some lookups did not complete in time.
+     */
+    @NonNull
+    static List<SSHUserPrivateKey> findAll(@NonNull List<String> ids, @NonNull Run<?, ?> run)
+            throws IOException, InterruptedException {
+        if (ids.size() <= 1) {
+            List<SSHUserPrivateKey> result = new ArrayList<>();
+            for (String id : ids) {
+                result.add(find(id, run));
+            }
+            return result;
+        }
+        // providers may check who is asking, so look up as the caller
+        Authentication authentication = Jenkins.getAuthentication2();
+        List<Callable<SSHUserPrivateKey>> lookups = new ArrayList<>();
+        for (String id : ids) {
+            lookups.add(() -> {
+                try (ACLContext ctx = ACL.as2(authentication)) {
+                    return find(id, run);
+                }
+            });
+        }
+        List<Future<SSHUserPrivateKey>> futures = executor().invokeAll(lookups, DEADLINE, TimeUnit.SECONDS);
+        List<SSHUserPrivateKey> result = new ArrayList<>();
+        List<String> timedOut = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            Future<SSHUserPrivateKey> future = futures.get(i);
+            if (future.isCancelled()) {
+                timedOut.add(ids.get(i));
+                continue;
+            }
+            try {
+                result.add(future.get());
+            } catch (ExecutionException x) {
+                Throwable cause = x.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+        if (!timedOut.isEmpty()) {
+            AgentMetrics.count(AgentMetrics.Event.CREDENTIALS_TIMED_OUT, null);
+            throw new AbortException(Messages.CredentialResolver_TimedOut(String.join(", ", timedOut)));
+        }
+        return result;
+    }
+
+    private static synchronized ExecutorService executor() {
+        if (executor == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(PARALLELISM, PARALLELISM, 1, TimeUnit.MINUTES,
+                    new LinkedBlockingQueue<>(),
+                    new NamingThreadFactory(new ClassLoaderSanityThreadFactory(new DaemonThreadFactory()), "CredentialResolver"));
+            pool.allowCoreThreadTimeOut(true);
+            executor = new ContextResettingExecutorService(pool);
+        }
+        return executor;
+    }
+
+    static synchronized void invalidate() {
+        CACHE.clear();
+    }
+
+    /**
+     * Credentials parameters are resolved against the user who triggered the build, so are not cached.
+     */
+    private static boolean hasCredentialsParameters(@NonNull Run<?, ?> run) {
+        ParametersAction parameters = run.getAction(ParametersAction.class);
+        if (parameters != null) {
+            for (ParameterValue value : parameters.getParameters()) {
+                if (value instanceof CredentialsParameterValue) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @NonNull
+    private static String key(@NonNull String id, @NonNull Run<?, ?> run) {
+        String authentication = "";
+        if (run.getParent() instanceof Queue.Task) {
+            Authentication a = Tasks.getAuthenticationOf2((Queue.Task) run.getParent());
+            authentication = a.getName();
+        }
+        // NUL cannot appear in any of these
+        return run.getParent().getFullName() + '\0' + id + '\0' + authentication;
+    }
+
+    private static final class Entry {
+        final SSHUserPrivateKey credentials;
+        final long expires;
+
+        Entry(SSHUserPrivateKey credentials, long expires) {
+            this.credentials = credentials;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Drops results whenever credentials or permissions may have changed; only builds, plain jobs and nodes being
+     * saved, which happens all the time, are ignored.
+     */
+    @Extension
+    public static final class Invalidator extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Run || (o instanceof Item && !(o instanceof ItemGroup)) || o instanceof Node || o instanceof Nodes) {
+                return;
+            }
+            invalidate();
+        }
+
+        @Override
+        public void onDeleted(Saveable o, XmlFile file) {
+            onChange(o, file);
+        }
+    }
+}
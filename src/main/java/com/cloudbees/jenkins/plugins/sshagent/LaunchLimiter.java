@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.NodeListener;
+
+/**
+ * Bounds how many agents are started, or loaded with identities, at once on a node, as set by
+ * {@link SSHAgentNodeProperty#getMaxConcurrentLaunches()}.
+ * <p>
+ * Callers beyond the limit queue in arrival order, so that a burst of builds landing on a node is spread out
+ * rather than forking so many processes at once that some time out. Agents started on the node itself upon socket
+ * activation are bounded there, separately.
+ */
+public final class LaunchLimiter {
+
+    /** Limits by node name, until the node is deleted. */
+    static final Map<String, Limit> LIMITS = new ConcurrentHashMap<>();
+
+    private static final Permit UNLIMITED = () -> {};
+
+    private LaunchLimiter() {
+    }
+
+    /**
+     * Waits for a turn to start an agent or load identities on a node.
+     *
+     * @param computer the computer, if known; there is no limit otherwise.
+     * @return to be closed once done.
+     */
+    @NonNull
+    public static Permit acquire(@CheckForNull Computer computer) throws InterruptedException {
+        if (computer == null) {
+            return UNLIMITED;
+        }
+        int max = SSHAgentNodeProperty.of(computer.getNode()).getMaxConcurrentLaunches();
+        if (max <= 0) {
+            return UNLIMITED;
+        }
+        String node = AgentMetrics.node(computer);
+        // a changed limit applies to callers from now on, those queued already keep their place in the former one
+        Limit limit = LIMITS.compute(computer.getName(), (k, v) -> v != null && v.permits == max ? v : new Limit(max));
+        // unlike tryAcquire(), does not barge ahead of callers already queued
+        if (!limit.semaphore.tryAcquire(0, TimeUnit.SECONDS)) {
+            long start = AgentMetrics.start();
+            AgentMetrics.count(AgentMetrics.Event.QUEUED, node);
+            limit.semaphore.acquire();
+            AgentMetrics.record(AgentMetrics.Phase.QUEUE_WAIT, "limit", node, start);
+        }
+        return limit.semaphore::release;
+    }
+
+    /**
+     * A turn, over once closed.
+     */
+    @FunctionalInterface
+    public interface Permit extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    static final class Limit {
+        final int permits;
+
+        final Semaphore semaphore;
+
+        Limit(int permits) {
+            this.permits = permits;
+            this.semaphore = new Semaphore(permits, true);
+        }
+    }
+
+    /**
+     * Forgets about the limit of deleted nodes, such as ephemeral cloud agents.
+     */
+    @Extension
+    public static final class NodeListenerImpl extends NodeListener {
+        @Override
+        protected void onDeleted(@NonNull Node node) {
+            LIMITS.remove(node.getNodeName());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A running SSH agent, as started by a {@link RemoteAgentFactory}.
+ * <p>
+ * Instances are held by {@link SSHAgentStepExecution} and so must survive a controller restart.
+ */
+public interface RemoteAgent extends Serializable {
+
+    /**
+     * Adds the provided identity to the agent.
+     *
+     * @param privateKey the private key.
+     * @param passphrase the passphrase or {@code null}.
+     * @param comment    the comment to give to the key.
+     * @param ws         the workspace, for implementations which need temporary files.
+     * @param launcher   the launcher for the node running the agent.
+     * @param listener   for logging.
+     */
+    void addIdentity(String privateKey, String passphrase, String comment, FilePath ws, Launcher launcher, TaskListener listener)
+            throws IOException, InterruptedException;
+
+    /**
+     * Adds several identities to the agent.
+     * <p>
+     * Implementations should load them in as few operations as possible, while still reporting which of them failed.
+     *
+     * @param identities the identities, in the order they should be offered.
+     * @param ws         the workspace, for implementations which need temporary files.
+     * @param launcher   the launcher for the node running the agent.
+     * @param listener   for logging.
+     */
+    default void addIdentities(List<AgentIdentity> identities, FilePath ws, Launcher launcher, TaskListener listener)
+            throws IOException, InterruptedException {
+        for (AgentIdentity identity : identities) {
+            addIdentity(identity.getPrivateKey(), identity.getPassphrase(), identity.getComment(), ws, launcher, listener);
+        }
+    }
+
+    /**
+     * Gets the identities which were never used to sign anything, for implementations tracking it.
+     *
+     * @param launcher the launcher for the node running the agent.
+     * @return the comments of the unused identities, or {@code null} if unknown.
+     */
+    @CheckForNull
+    default List<String> getUnusedIdentities(Launcher launcher) throws IOException, InterruptedException {
+        return null;
+    }
+
+    /**
+     * Gets the environment variables which make the agent available to processes.
+     *
+     * @return the environment, at least containing {@code SSH_AUTH_SOCK}.
+     */
+    Map<String, String> getEnv();
+
+    /**
+     * Stops the agent.
+     *
+     * @param launcher the launcher for the node running the agent.
+     * @param listener for logging.
+     */
+    void stop(Launcher launcher, TaskListener listener) throws IOException, InterruptedException;
+}
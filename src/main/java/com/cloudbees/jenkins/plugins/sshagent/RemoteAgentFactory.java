@@ -0,0 +1,278 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+
+/**
+ * Extension point for SSH agent implementations.
+ * <p>
+ * Implementations are tried in extension ordinal order, the first one {@link #isSupported supporting} the node wins.
+ * Should it fail to start an agent, the next one supporting the node is tried.
+ */
+public abstract class RemoteAgentFactory implements ExtensionPoint {
+
+    private static final Logger LOGGER = Logger.getLogger(RemoteAgentFactory.class.getName());
+
+    /**
+     * Name of the implementation class of the factory to try first, regardless of its ordinal.
+     */
+    static /* not final */ String PREFERRED = SystemProperties.getString(RemoteAgentFactory.class.getName() + ".preferred");
+
+    /**
+     * The display name of the factory.
+     *
+     * @return the display name of the factory.
+     */
+    @NonNull
+    public abstract String getDisplayName();
+
+    /**
+     * Checks if this factory is able to start an agent on the node.
+     *
+     * @param launcher     the launcher which will be used to start the agent.
+     * @param capabilities what the node was found to support.
+     * @return {@code true} if {@link #start} is expected to succeed.
+     */
+    public abstract boolean isSupported(@NonNull Launcher launcher, @NonNull AgentCapabilities capabilities);
+
+    /**
+     * Checks if agents of this factory honor {@link SSHAgentGlobalConfiguration#isLazyIdentities}, in which case they
+     * are tried first when it is enabled.
+     *
+     * @return {@code true} if keys can be decrypted on first use.
+     */
+    public boolean isLazyIdentitiesSupported() {
+        return false;
+    }
+
+    /**
+     * Starts an agent.
+     *
+     * @param launcher     the launcher for the node.
+     * @param listener     for logging.
+     * @param capabilities what the node was found to support.
+     * @return the running agent.
+     */
+    @NonNull
+    public abstract RemoteAgent start(@NonNull Launcher launcher, @NonNull TaskListener listener,
+                                      @NonNull AgentCapabilities capabilities) throws IOException, InterruptedException;
+
+    /**
+     * Starts an agent on a known computer.
+     * <p>
+     * Implementations keeping state per node, such as pools of agents, should override this.
+     *
+     * @param computer     the computer the launcher belongs to, if known.
+     * @param launcher     the launcher for the node.
+     * @param listener     for logging.
+     * @param capabilities what the node was found to support.
+     * @return the running agent.
+     */
+    @NonNull
+    public RemoteAgent start(@CheckForNull Computer computer, @NonNull Launcher launcher, @NonNull TaskListener listener,
+                             @NonNull AgentCapabilities capabilities) throws IOException, InterruptedException {
+        return start(launcher, listener, capabilities);
+    }
+
+    /**
+     * Starts an agent and loads identities into it.
+     * <p>
+     * Implementations able to do both at once should override this. The agent is stopped should loading fail.
+     *
+     * @param computer      the computer the launcher belongs to, if known.
+     * @param launcher      the launcher for the node.
+     * @param listener      for logging.
+     * @param capabilities  what the node was found to support.
+     * @param identities    the identities, in the order they should be offered.
+     * @param ws            the workspace, for implementations which need temporary files.
+     * @param identityLoads told the time spent loading identities, in nanoseconds, once per load: once for all of them,
+     *                      or once for each where the implementation loads them one by one.
+     * @return the running agent.
+     */
+    @NonNull
+    public RemoteAgent start(@CheckForNull Computer computer, @NonNull Launcher launcher, @NonNull TaskListener listener,
+                             @NonNull AgentCapabilities capabilities, @NonNull List<AgentIdentity> identities,
+                             @CheckForNull FilePath ws, @NonNull LongConsumer identityLoads) throws IOException, InterruptedException {
+        RemoteAgent agent = start(computer, launcher, listener, capabilities);
+        try {
+            long start = System.nanoTime();
+            agent.addIdentities(identities, ws, launcher, listener);
+            identityLoads.accept(System.nanoTime() - start);
+        } catch (IOException | InterruptedException | RuntimeException x) {
+            try {
+                agent.stop(launcher, listener);
+            } catch (IOException | RuntimeException x2) {
+                x.addSuppressed(x2);
+            }
+            throw x;
+        }
+        return agent;
+    }
+
+    /**
+     * Starts an agent using the best implementation supported by the node.
+     *
+     * @param computer the computer the launcher belongs to, if known; used to cache what the node supports.
+     * @param launcher the launcher for the node.
+     * @param listener for logging.
+     * @return the running agent.
+     */
+    @NonNull
+    public static RemoteAgent startAgent(@CheckForNull Computer computer, @NonNull Launcher launcher,
+                                         @NonNull TaskListener listener) throws IOException, InterruptedException {
+        return startAgent(computer, launcher, listener, AgentMetrics.Phase.STARTUP,
+                (factory, capabilities) -> factory.start(computer, launcher, listener, capabilities));
+    }
+
+    /**
+     * Starts an agent using the best implementation supported by the node, and loads identities into it.
+     *
+     * @param computer   the computer the launcher belongs to, if known; used to cache what the node supports.
+     * @param launcher   the launcher for the node.
+     * @param listener   for logging.
+     * @param identities the identities, in the order they should be offered.
+     * @param ws         the workspace, for implementations which need temporary files.
+     * @return the running agent.
+     */
+    @NonNull
+    public static RemoteAgent startAgent(@CheckForNull Computer computer, @NonNull Launcher launcher,
+                                         @NonNull TaskListener listener, @NonNull List<AgentIdentity> identities,
+                                         @CheckForNull FilePath ws) throws IOException, InterruptedException {
+        return startAgent(computer, launcher, listener, identities, ws, load -> {});
+    }
+
+    /**
+     * Starts an agent using the best implementation supported by the node, and loads identities into it.
+     *
+     * @param computer      the computer the launcher belongs to, if known; used to cache what the node supports.
+     * @param launcher      the launcher for the node.
+     * @param listener      for logging.
+     * @param identities    the identities, in the order they should be offered.
+     * @param ws            the workspace, for implementations which need temporary files.
+     * @param identityLoads told the time spent loading identities, in nanoseconds, once per load.
+     * @return the running agent.
+     */
+    @NonNull
+    public static RemoteAgent startAgent(@CheckForNull Computer computer, @NonNull Launcher launcher,
+                                         @NonNull TaskListener listener, @NonNull List<AgentIdentity> identities,
+                                         @CheckForNull FilePath ws, @NonNull LongConsumer identityLoads)
+            throws IOException, InterruptedException {
+        // identities were loaded along, so this is not comparable to startup alone
+        return startAgent(computer, launcher, listener, AgentMetrics.Phase.STARTUP_WITH_IDENTITIES,
+                (factory, capabilities) -> factory.start(computer, launcher, listener, capabilities, identities, ws, identityLoads));
+    }
+
+    /**
+     * Starts an agent with one of the factories.
+     */
+    @FunctionalInterface
+    private interface Starter {
+        @NonNull
+        RemoteAgent start(@NonNull RemoteAgentFactory factory, @NonNull AgentCapabilities capabilities)
+                throws IOException, InterruptedException;
+    }
+
+    /**
+     * Starts an agent with the first factory supporting the node, falling back to the next ones should it fail.
+     *
+     * @param phase the phase to time.
+     */
+    @NonNull
+    private static RemoteAgent startAgent(@CheckForNull Computer computer, @NonNull Launcher launcher,
+                                          @NonNull TaskListener listener, @NonNull AgentMetrics.Phase phase,
+                                          @NonNull Starter starter) throws IOException, InterruptedException {
+        AgentCapabilities capabilities = AgentCapabilities.of(computer, launcher);
+        List<RemoteAgentFactory> factories = new ArrayList<>();
+        for (RemoteAgentFactory factory : all()) {
+            if (factory.isSupported(launcher, capabilities)) {
+                factories.add(factory);
+            }
+        }
+        if (factories.isEmpty()) {
+            throw new AbortException(Messages.RemoteAgentFactory_NoneSupported());
+        }
+        List<Exception> failures = new ArrayList<>();
+        for (RemoteAgentFactory factory : factories) {
+            listener.getLogger().println(Messages.RemoteAgentFactory_Using(factory.getDisplayName()));
+            RemoteAgent agent;
+            long start;
+            try (LaunchLimiter.Permit permit = LaunchLimiter.acquire(computer)) {
+                start = AgentMetrics.start();
+                agent = starter.start(factory, capabilities);
+            } catch (IOException | RuntimeException x) {
+                if (failures.size() == factories.size() - 1) {
+                    failures.forEach(x::addSuppressed);
+                    throw x;
+                }
+                LOGGER.log(Level.WARNING, "Could not start an agent with " + factory.getDisplayName() + ", trying the next provider", x);
+                listener.getLogger().println(Messages.RemoteAgentFactory_Failed(factory.getDisplayName(), x.getMessage()));
+                failures.add(x);
+                continue;
+            }
+            AgentMetrics.record(phase, AgentMetrics.engine(factory), AgentMetrics.node(computer), start);
+            return agent;
+        }
+        throw new AssertionError("the last failure is rethrown");
+    }
+
+    /**
+     * All factories, in the order they should be tried.
+     */
+    @NonNull
+    static List<RemoteAgentFactory> all() {
+        List<RemoteAgentFactory> result = new ArrayList<>(ExtensionList.lookup(RemoteAgentFactory.class));
+        if (PREFERRED == null && SSHAgentGlobalConfiguration.get().isLazyIdentities()) {
+            // stable, so the ordinals still decide among those supporting it
+            result.sort(Comparator.comparing(factory -> !factory.isLazyIdentitiesSupported()));
+        }
+        if (PREFERRED != null) {
+            for (RemoteAgentFactory factory : result) {
+                if (factory.getClass().getName().equals(PREFERRED)) {
+                    result.remove(factory);
+                    result.add(0, factory);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -23,7 +23,6 @@
  */
 package com.cloudbees.jenkins.plugins.sshagent;
 
-import com.cloudbees.jenkins.plugins.sshagent.exec.ExecRemoteAgent;
 import com.cloudbees.jenkins.plugins.sshcredentials.SSHAuthenticator;
 import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
@@ -39,16 +38,17 @@ import hudson.model.AbstractBuild;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
+import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.Item;
 import hudson.model.Queue;
+import hudson.model.Run;
 import hudson.model.queue.Tasks;
 import hudson.security.ACL;
 import hudson.security.AccessControlled;
 import hudson.tasks.BuildWrapper;
 import hudson.tasks.BuildWrapperDescriptor;
 import hudson.util.ListBoxModel;
-import hudson.util.Secret;
 import java.io.IOException;
 import java.io.ObjectStreamException;
 import java.util.ArrayList;
@@ -193,13 +193,16 @@ public class SSHAgentBuildWrapper extends BuildWrapper {
             throws IOException, InterruptedException {
         // first collect all the keys (this is so we can bomb out before starting an agent
         List<SSHUserPrivateKey> keys = new ArrayList<>();
-        for (String id : new LinkedHashSet<>(getCredentialIds())) {
-            final SSHUserPrivateKey c = CredentialsProvider.findCredentialById(
-                    id,
-                    SSHUserPrivateKey.class,
-                    build
-            );
-            CredentialsProvider.track(build, c);
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(getCredentialIds()));
+        long lookup = System.nanoTime();
+        List<SSHUserPrivateKey> found = CredentialResolver.findAll(ids, build);
+        long lookupTime = System.nanoTime() - lookup;
+        for (int i = 0; i < ids.size(); i++) {
+            String id = ids.get(i);
+            final SSHUserPrivateKey c = found.get(i);
+            if (c == null) {
+                AgentMetrics.count(AgentMetrics.Event.CREDENTIALS_MISSING, AgentMetrics.node(Computer.currentComputer()));
+            }
             if (c == null && !ignoreMissing) {
                 IOException ioe = new IOException(Messages.SSHAgentBuildWrapper_CredentialsNotFound(id));
                 ioe.printStackTrace(listener.fatalError(""));
@@ -223,8 +226,9 @@ public class SSHAgentBuildWrapper extends BuildWrapper {
             environment = createSSHAgentEnvironment(build, launcher, listener);
             build.getEnvironments().add(environment);
         }
+        environment.timings.credentials(lookupTime);
+        environment.add(keys);
         for (SSHUserPrivateKey key : keys) {
-            environment.add(key);
             listener.getLogger().println(Messages.SSHAgentBuildWrapper_UsingCredentials(description(key)));
         }
     }
@@ -243,7 +247,7 @@ public class SSHAgentBuildWrapper extends BuildWrapper {
     private SSHAgentEnvironment createSSHAgentEnvironment(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
             throws IOException, InterruptedException {
         try {
-            return new SSHAgentEnvironment(launcher, listener, build.getWorkspace());
+            return new SSHAgentEnvironment(launcher, listener, build.getWorkspace(), build);
         } catch (InterruptedException e) {
             e.printStackTrace(listener.fatalError(Messages.SSHAgentBuildWrapper_CouldNotStartAgent()));
             throw e;
@@ -293,7 +297,7 @@ public class SSHAgentBuildWrapper extends BuildWrapper {
      * The SSH Agent environment.
      */
     private class SSHAgentEnvironment extends Environment {
-        private final ExecRemoteAgent agent;
+        private final RemoteAgent agent;
 
         private final Launcher launcher;
 
@@ -301,27 +305,38 @@ public class SSHAgentBuildWrapper extends BuildWrapper {
 
         private final BuildListener listener;
 
-        SSHAgentEnvironment(Launcher launcher, BuildListener listener, FilePath workspace) throws Throwable {
+        private final AgentTimingAction.Block timings;
+
+        private final Computer computer;
+
+        SSHAgentEnvironment(Launcher launcher, BuildListener listener, FilePath workspace, Run<?, ?> build) throws Throwable {
             this.launcher = launcher;
             this.workspace = Objects.requireNonNull(workspace);
             this.listener = listener;
+            this.computer = Computer.currentComputer();
+            this.timings = AgentTimingAction.begin(build, Messages.AgentTimingAction_Wrapper(AgentMetrics.node(computer)));
             listener.getLogger().println("[ssh-agent] Looking for ssh-agent implementation...");
-            agent = new ExecRemoteAgent(launcher, listener);
+            long start = System.nanoTime();
+            agent = RemoteAgentFactory.startAgent(computer, launcher, listener);
+            timings.startup(System.nanoTime() - start);
+            AgentReaper.register(agent, computer, launcher, build);
             listener.getLogger().println(Messages.SSHAgentBuildWrapper_Started());
         }
 
         /**
-         * Adds a key to the agent.
+         * Adds keys to the agent.
          *
-         * @param key the key.
-         * @throws IOException if the key cannot be added.
+         * @param keys the keys.
+         * @throws IOException if the keys cannot be added.
          * @since 1.9
          */
-        public void add(SSHUserPrivateKey key) throws IOException, InterruptedException {
-            final Secret passphrase = key.getPassphrase();
-            final String effectivePassphrase = passphrase == null ? null : passphrase.getPlainText();
-            for (String privateKey : key.getPrivateKeys()) {
-                agent.addIdentity(privateKey, effectivePassphrase, description(key), workspace, launcher, listener);
+        public void add(List<SSHUserPrivateKey> keys) throws IOException, InterruptedException {
+            List<AgentIdentity> identities = AgentIdentity.of(keys, listener);
+            try (LaunchLimiter.Permit permit = LaunchLimiter.acquire(computer)) {
+                long start = AgentMetrics.start();
+                agent.addIdentities(identities, workspace, launcher, listener);
+                AgentMetrics.record(AgentMetrics.Phase.IDENTITY_LOAD, AgentMetrics.engine(agent), AgentMetrics.node(launcher), start);
+                timings.identityLoad(System.nanoTime() - start);
             }
         }
 
@@ -340,8 +355,11 @@ public class SSHAgentBuildWrapper extends BuildWrapper {
         public boolean tearDown(AbstractBuild build, BuildListener listener)
                 throws IOException, InterruptedException {
             if (agent != null) {
-                agent.stop(launcher, listener);
-                listener.getLogger().println(Messages.SSHAgentBuildWrapper_Stopped());
+                long start = System.nanoTime();
+                AgentTeardown.stop(agent, launcher, build, listener).thenRun(() -> {
+                    timings.teardown(System.nanoTime() - start);
+                    AgentTimingAction.save(build);
+                });
             }
             return true;
         }
@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import jenkins.model.GlobalConfiguration;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * Global settings of the {@code sshagent} step.
+ */
+@Extension
+@Symbol("sshAgent")
+public class SSHAgentGlobalConfiguration extends GlobalConfiguration {
+
+    /**
+     * Whether agents are kept running after a step, to be reused by the next one needing the same identities.
+     */
+    private boolean reuseAgents;
+
+    /**
+     * Minutes a reusable agent is kept once no step uses it anymore.
+     */
+    private int reuseTimeToLive = 10;
+
+    /**
+     * Maximum number of reusable agents kept running across all nodes.
+     */
+    private int reuseMaxAgents = 20;
+
+    /**
+     * Whether keys are only decrypted once a client asks the agent to sign with them.
+     */
+    private boolean lazyIdentities;
+
+    /**
+     * Whether {@code ssh-agent} is only started once a process connects to its socket.
+     */
+    private boolean socketActivation;
+
+    public SSHAgentGlobalConfiguration() {
+        load();
+    }
+
+    @NonNull
+    public static SSHAgentGlobalConfiguration get() {
+        return ExtensionList.lookupSingleton(SSHAgentGlobalConfiguration.class);
+    }
+
+    public boolean isReuseAgents() {
+        return reuseAgents;
+    }
+
+    @DataBoundSetter
+    public void setReuseAgents(boolean reuseAgents) {
+        this.reuseAgents = reuseAgents;
+        save();
+    }
+
+    public int getReuseTimeToLive() {
+        return reuseTimeToLive;
+    }
+
+    @DataBoundSetter
+    public void setReuseTimeToLive(int reuseTimeToLive) {
+        this.reuseTimeToLive = Math.max(1, reuseTimeToLive);
+        save();
+    }
+
+    public int getReuseMaxAgents() {
+        return reuseMaxAgents;
+    }
+
+    @DataBoundSetter
+    public void setReuseMaxAgents(int reuseMaxAgents) {
+        this.reuseMaxAgents = Math.max(1, reuseMaxAgents);
+        save();
+    }
+
+    public boolean isLazyIdentities() {
+        return lazyIdentities;
+    }
+
+    @DataBoundSetter
+    public void setLazyIdentities(boolean lazyIdentities) {
+        this.lazyIdentities = lazyIdentities;
+        save();
+    }
+
+    public boolean isSocketActivation() {
+        return socketActivation;
+    }
+
+    @DataBoundSetter
+    public void setSocketActivation(boolean socketActivation) {
+        this.socketActivation = socketActivation;
+        save();
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Tunes how SSH agents are run on a node.
+ * <p>
+ * May be set on a node, or in the global node properties to apply to all nodes which do not have their own.
+ */
+public class SSHAgentNodeProperty extends NodeProperty<Node> {
+
+    /**
+     * Number of idle agents to keep ready, {@code 0} to start one per build.
+     */
+    private int poolSize;
+
+    /**
+     * Minutes without any build using the pool after which idle agents are stopped.
+     */
+    private int poolIdleTimeout = 30;
+
+    /**
+     * Minutes after which an agent is stopped rather than handed to another build.
+     */
+    private int poolMaxAge = 240;
+
+    /**
+     * Number of agents which may be started, or loaded with identities, at once; {@code 0} for no limit.
+     */
+    private int maxConcurrentLaunches;
+
+    /**
+     * Directory for sockets, keys and helper scripts, or {@code null} to detect a memory-backed one.
+     */
+    @CheckForNull
+    private String tempDirectory;
+
+    @DataBoundConstructor
+    public SSHAgentNodeProperty() {
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    @DataBoundSetter
+    public void setPoolSize(int poolSize) {
+        this.poolSize = Math.max(0, poolSize);
+    }
+
+    public int getPoolIdleTimeout() {
+        return poolIdleTimeout;
+    }
+
+    @DataBoundSetter
+    public void setPoolIdleTimeout(int poolIdleTimeout) {
+        this.poolIdleTimeout = Math.max(1, poolIdleTimeout);
+    }
+
+    public int getPoolMaxAge() {
+        return poolMaxAge;
+    }
+
+    @DataBoundSetter
+    public void setPoolMaxAge(int poolMaxAge) {
+        this.poolMaxAge = Math.max(1, poolMaxAge);
+    }
+
+    public int getMaxConcurrentLaunches() {
+        return maxConcurrentLaunches;
+    }
+
+    @DataBoundSetter
+    public void setMaxConcurrentLaunches(int maxConcurrentLaunches) {
+        this.maxConcurrentLaunches = Math.max(0, maxConcurrentLaunches);
+    }
+
+    @CheckForNull
+    public String getTempDirectory() {
+        return tempDirectory;
+    }
+
+    @DataBoundSetter
+    public void setTempDirectory(@CheckForNull String tempDirectory) {
+        this.tempDirectory = Util.fixEmptyAndTrim(tempDirectory);
+    }
+
+    /**
+     * Gets the settings in effect on a node.
+     *
+     * @param node the node, or {@code null} if unknown.
+     * @return the property of the node, else the global one, else the defaults.
+     */
+    @NonNull
+    public static SSHAgentNodeProperty of(@CheckForNull Node node) {
+        if (node != null) {
+            SSHAgentNodeProperty property = node.getNodeProperty(SSHAgentNodeProperty.class);
+            if (property != null) {
+                return property;
+            }
+        }
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins != null) {
+            SSHAgentNodeProperty property = jenkins.getGlobalNodeProperties().get(SSHAgentNodeProperty.class);
+            if (property != null) {
+                return property;
+            }
+        }
+        return new SSHAgentNodeProperty();
+    }
+
+    @Extension
+    @Symbol("sshAgent")
+    public static class DescriptorImpl extends NodePropertyDescriptor {
+
+        /**
+         * {@inheritDoc}
+         */
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return Messages.SSHAgentNodeProperty_DisplayName();
+        }
+
+        public FormValidation doCheckPoolSize(@QueryParameter int value) {
+            return value < 0 ? FormValidation.error(Messages.SSHAgentNodeProperty_NotNegative()) : FormValidation.ok();
+        }
+
+        public FormValidation doCheckMaxConcurrentLaunches(@QueryParameter int value) {
+            return value < 0 ? FormValidation.error(Messages.SSHAgentNodeProperty_NotNegative()) : FormValidation.ok();
+        }
+    }
+}
@@ -1,28 +1,83 @@
 package com.cloudbees.jenkins.plugins.sshagent;
 
-import com.cloudbees.jenkins.plugins.sshagent.exec.ExecRemoteAgent;
 import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
-import com.cloudbees.plugins.credentials.CredentialsProvider;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.model.Computer;
 import hudson.model.Run;
 import hudson.model.TaskListener;
-import hudson.util.Secret;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.ClassLoaderSanityThreadFactory;
+import jenkins.util.ContextResettingExecutorService;
+import jenkins.util.SystemProperties;
 import org.jenkinsci.plugins.workflow.steps.*;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 final class SSHAgentStepExecution extends AbstractStepExecutionImpl {
 
     private static final long serialVersionUID = 1L;
 
+    private static final Logger LOGGER = Logger.getLogger(SSHAgentStepExecution.class.getName());
+
     private transient SSHAgentStep step;
 
-    private ExecRemoteAgent agent;
+    /**
+     * Maximum number of steps starting their agent at the same time, across all builds.
+     */
+    static /* not final */ int MAX_STARTING = SystemProperties.getInteger(SSHAgentStepExecution.class.getName() + ".maxStarting", 10);
+
+    /**
+     * Seconds to wait for an agent to answer after a restart, before assuming it is fine.
+     */
+    static /* not final */ int PROBE_TIMEOUT = SystemProperties.getInteger(SSHAgentStepExecution.class.getName() + ".probeTimeout", 10);
+
+    /**
+     * Seconds to keep trying to check the agent after a restart, e.g. while its node reconnects.
+     */
+    static /* not final */ int REVALIDATION_TIMEOUT = SystemProperties.getInteger(SSHAgentStepExecution.class.getName() + ".revalidationTimeout", 60);
+
+    /**
+     * Starts agents, so that slow credential lookups or nodes do not hold up the CPS VM thread of the build.
+     */
+    private static ExecutorService executor;
+
+    private volatile RemoteAgent agent;
+
+    /** Whether the agent is being started and the body not invoked yet; {@code false} in executions predating this. */
+    private volatile boolean initializing;
+
+    /** Startup still in progress, if any. */
+    private transient volatile Future<?> starting;
+
+    /** Whether the step was stopped, possibly before startup completed. */
+    private transient boolean stopping;
+
+    /** Where timings of this block are recorded; not kept across restarts. */
+    private transient AgentTimingAction.Block timings;
+
+    /** IDs of the credentials loaded into the agent; {@code null} in executions predating this. */
+    private List<String> credentialIds;
+
+    /** Fingerprints of the keys loaded into the agent, to check it still holds them after a restart. */
+    private List<String> fingerprints;
+
+    /** Checking the agent after a restart, see {@link #revalidateOnResume}. */
+    private transient volatile Future<?> revalidation;
 
     SSHAgentStepExecution(SSHAgentStep step, StepContext context) {
         super(context);
@@ -31,16 +86,55 @@ final class SSHAgentStepExecution extends AbstractStepExecutionImpl {
 
     @Override
     public boolean start() throws Exception {
-        StepContext context = getContext();
-        initRemoteAgent();
-        context.newBodyInvoker().
-                withContext(EnvironmentExpander.merge(getContext().get(EnvironmentExpander.class), new ExpanderImpl(this))).
-                withCallback(new Callback(this)).start();
+        initializing = true;
+        starting = executor().submit(this::startAsync);
         return false;
     }
 
+    private void startAsync() {
+        StepContext context = getContext();
+        try {
+            initRemoteAgent();
+            synchronized (this) {
+                if (stopping) {
+                    stop();
+                    return;
+                }
+                initializing = false;
+            }
+            context.newBodyInvoker().
+                    withContext(EnvironmentExpander.merge(context.get(EnvironmentExpander.class), new ExpanderImpl(this))).
+                    withCallback(new Callback(this)).start();
+        } catch (Throwable x) {
+            try {
+                stop();
+            } catch (Exception x2) {
+                x.addSuppressed(x2);
+            }
+            synchronized (this) {
+                if (stopping) {
+                    // already reported by stop(Throwable)
+                    return;
+                }
+            }
+            context.onFailure(x);
+        }
+    }
+
     @Override
     public void stop(@NonNull Throwable cause) throws Exception {
+        Future<?> task;
+        synchronized (this) {
+            stopping = true;
+            task = starting;
+        }
+        if (task != null) {
+            task.cancel(true);
+        }
+        Future<?> check = revalidation;
+        if (check != null) {
+            check.cancel(true);
+        }
         try {
             stop();
         } catch (Exception x) {
@@ -49,17 +143,58 @@ final class SSHAgentStepExecution extends AbstractStepExecutionImpl {
         super.stop(cause);
     }
 
+    @Override
+    public void onResume() {
+        if (!initializing && agent != null && credentialIds != null) {
+            revalidation = executor().submit(this::revalidateOnResume);
+        }
+        if (initializing) {
+            // startup does not survive a restart, and the step parameters were not kept to run it again
+            executor().submit(() -> {
+                try {
+                    stop();
+                } catch (Exception x) {
+                    LOGGER.log(Level.FINE, "Could not stop agent started before restart", x);
+                }
+                getContext().onFailure(new AbortException(Messages.SSHAgentStepExecution_InterruptedByRestart()));
+            });
+        }
+    }
+
     private void stop() throws Exception {
+        RemoteAgent agent;
+        synchronized (this) {
+            agent = this.agent;
+            this.agent = null;
+        }
         if (agent != null) {
             TaskListener listener = getContext().get(TaskListener.class);
             Launcher launcher = getContext().get(Launcher.class);
             if (listener != null && launcher != null) {
-                agent.stop(launcher, listener);
-                listener.getLogger().println(Messages.SSHAgentBuildWrapper_Stopped());
+                Run<?, ?> run = getContext().get(Run.class);
+                AgentTimingAction.Block timings = this.timings;
+                long start = System.nanoTime();
+                AgentTeardown.stop(agent, launcher, run, listener).thenRun(() -> {
+                    if (timings != null) {
+                        timings.teardown(System.nanoTime() - start);
+                        AgentTimingAction.save(run);
+                    }
+                });
             }
         }
     }
 
+    private static synchronized ExecutorService executor() {
+        if (executor == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_STARTING, MAX_STARTING, 1, TimeUnit.MINUTES,
+                    new LinkedBlockingQueue<>(),
+                    new NamingThreadFactory(new ClassLoaderSanityThreadFactory(new DaemonThreadFactory()), "SSHAgentStepExecution.start"));
+            pool.allowCoreThreadTimeOut(true);
+            executor = new ContextResettingExecutorService(pool);
+        }
+        return executor;
+    }
+
     private static class Callback extends BodyExecutionCallback.TailCall {
 
         private static final long serialVersionUID = 1L;
@@ -89,12 +224,19 @@ final class SSHAgentStepExecution extends AbstractStepExecutionImpl {
 
         @Override
         public void expand(EnvVars env) throws IOException, InterruptedException {
-            env.overrideAll(execution.agent.getEnv());
+            // called on the CPS VM thread, so never waits for the agent to be checked after a restart
+            RemoteAgent agent = execution.agent;
+            if (agent != null) {
+                env.overrideAll(agent.getEnv());
+            }
         }
     }
 
     /**
      * Initializes a SSH Agent.
+     * <p>
+     * The node is probed while the credentials are being looked up, then the agent is started along with its
+     * identities, in a single round trip where the implementation allows.
      *
      * @throws IOException
      */
@@ -103,10 +245,180 @@ final class SSHAgentStepExecution extends AbstractStepExecutionImpl {
         TaskListener listener = getContext().get(TaskListener.class);
         Run<?, ?> build = getContext().get(Run.class);
         FilePath workspace = getContext().get(FilePath.class);
+        Computer computer = getContext().get(Computer.class);
+        AgentTimingAction.Block timings = AgentTimingAction.begin(build,
+                Messages.AgentTimingAction_Step(String.join(", ", step.getCredentials()), AgentMetrics.node(computer)));
+        this.timings = timings;
+        // cached per computer, so that starting the agent later does not probe again
+        Future<AgentCapabilities> probing = Computer.threadPoolForRemoting.submit(() -> AgentCapabilities.of(computer, launcher));
+        List<SSHUserPrivateKey> userPrivateKeys;
+        List<AgentIdentity> identities;
+        long lookup = System.nanoTime();
+        try {
+            userPrivateKeys = resolveCredentials(build, listener, computer);
+            identities = AgentIdentity.of(userPrivateKeys, listener);
+        } catch (IOException | InterruptedException | RuntimeException x) {
+            probing.cancel(true);
+            throw x;
+        }
+        timings.credentials(System.nanoTime() - lookup);
+        List<String> ids = new ArrayList<>();
+        for (SSHUserPrivateKey userPrivateKey : userPrivateKeys) {
+            ids.add(userPrivateKey.getId());
+        }
+        credentialIds = ids;
+        fingerprints = fingerprints(identities);
+
+        long start = System.nanoTime();
+        try {
+            probing.get();
+        } catch (ExecutionException x) {
+            // probed again, and reported, while starting
+        } catch (InterruptedException x) {
+            probing.cancel(true);
+            throw x;
+        }
+        // loaded along with starting the agent, so told apart by the implementation
+        List<Long> loads = new ArrayList<>();
+        agent = AgentCache.acquire(computer, launcher, listener, identities, workspace, build, loads::add);
+        long loaded = 0;
+        for (long load : loads) {
+            loaded += load;
+        }
+        timings.startup(Math.max(System.nanoTime() - start - loaded, 0));
+        for (long load : loads) {
+            timings.identityLoad(load);
+        }
+        AgentReaper.register(agent, computer, launcher, build);
+
+        listener.getLogger().println(Messages.SSHAgentBuildWrapper_Started());
+    }
+
+    /**
+     * Checks that the agent survived a restart and still holds its keys, which costs a single request to the agent.
+     * <p>
+     * Should it be gone, a new one is started with the same keys; should keys be missing, only those are loaded again,
+     * unless the agent is shared, in which case it is replaced too. Runs on {@link #executor()}, see
+     * {@link #revalidateOnResume}.
+     */
+    private void revalidate() throws IOException, InterruptedException {
+        RemoteAgent agent = this.agent;
+        Launcher launcher = getContext().get(Launcher.class);
+        String socket = agent == null ? null : agent.getEnv().get("SSH_AUTH_SOCK");
+        if (socket == null || launcher == null || launcher.getChannel() == null
+                || launcher instanceof Launcher.DecoratedLauncher || !launcher.isUnix()) {
+            // not reachable from the node JVM, e.g. inside a container
+            return;
+        }
+        List<String> present;
+        try {
+            present = launcher.getChannel().callAsync(new AgentProbe.RequestIdentities(socket)).get(PROBE_TIMEOUT, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException x) {
+            LOGGER.log(Level.FINE, "Could not probe " + socket, x);
+            return;
+        }
+        if (present != null && present.containsAll(fingerprints)) {
+            return;
+        }
+        TaskListener listener = getContext().get(TaskListener.class);
+        Run<?, ?> build = getContext().get(Run.class);
+        List<SSHUserPrivateKey> found = new ArrayList<>();
+        for (SSHUserPrivateKey c : CredentialResolver.findAll(credentialIds, build)) {
+            if (c != null) {
+                found.add(c);
+            }
+        }
+        List<AgentIdentity> identities = AgentIdentity.of(found, listener);
+        FilePath workspace = getContext().get(FilePath.class);
+        if (present == null || agent instanceof SharedRemoteAgent) {
+            // other steps may be using a shared agent, and the cache does not know it anymore after a restart
+            listener.getLogger().println(present == null ? Messages.SSHAgentStepExecution_Respawning() : Messages.SSHAgentStepExecution_Replacing());
+            Computer computer = getContext().get(Computer.class);
+            RemoteAgent fresh = RemoteAgentFactory.startAgent(computer, launcher, listener, identities, workspace);
+            AgentReaper.register(fresh, computer, launcher, build);
+            boolean swapped;
+            synchronized (this) {
+                swapped = this.agent == agent;
+                if (swapped) {
+                    this.agent = fresh;
+                }
+            }
+            if (!swapped) {
+                // stopped meanwhile
+                fresh.stop(launcher, listener);
+            } else if (present != null) {
+                agent.stop(launcher, listener);
+            }
+            return;
+        }
+        List<AgentIdentity> missing = new ArrayList<>();
+        for (AgentIdentity identity : identities) {
+            String fingerprint = KeyFingerprints.of(identity);
+            if (fingerprint == null || !present.contains(fingerprint)) {
+                missing.add(identity);
+            }
+        }
+        if (!missing.isEmpty()) {
+            listener.getLogger().println(Messages.SSHAgentStepExecution_Reloading(missing.size()));
+            try (LaunchLimiter.Permit permit = LaunchLimiter.acquire(getContext().get(Computer.class))) {
+                agent.addIdentities(missing, workspace, launcher, listener);
+            }
+        }
+    }
+
+    /**
+     * Runs {@link #revalidate} in the background, retrying for up to {@link #REVALIDATION_TIMEOUT} should it fail, e.g.
+     * as the node was not connected again yet. Steps of the body do not wait for it: those started meanwhile get the
+     * environment of the agent from before the restart, and later ones that of its replacement, if any.
+     */
+    private void revalidateOnResume() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(REVALIDATION_TIMEOUT);
+        while (true) {
+            try {
+                revalidate();
+                return;
+            } catch (IOException | RuntimeException x) {
+                if (System.nanoTime() - deadline >= 0) {
+                    // the agent is most likely fine, or the step about to run will tell
+                    LOGGER.log(Level.WARNING, "Could not check agent after restart", x);
+                    return;
+                }
+                LOGGER.log(Level.FINE, "Could not check agent on resume, retrying", x);
+            } catch (InterruptedException x) {
+                // stopped meanwhile
+                return;
+            }
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(Math.min(PROBE_TIMEOUT, REVALIDATION_TIMEOUT)));
+            } catch (InterruptedException x) {
+                return;
+            }
+        }
+    }
+
+    @NonNull
+    private static List<String> fingerprints(@NonNull List<AgentIdentity> identities) {
+        List<String> result = new ArrayList<>();
+        for (AgentIdentity identity : identities) {
+            String fingerprint = KeyFingerprints.of(identity);
+            if (fingerprint != null) {
+                result.add(fingerprint);
+            }
+        }
+        return result;
+    }
+
+    private List<SSHUserPrivateKey> resolveCredentials(Run<?, ?> build, TaskListener listener, Computer computer)
+            throws IOException, InterruptedException {
         List<SSHUserPrivateKey> userPrivateKeys = new ArrayList<>();
-        for (String id : new LinkedHashSet<>(step.getCredentials())) {
-            final SSHUserPrivateKey c = CredentialsProvider.findCredentialById(id, SSHUserPrivateKey.class, build);
-            CredentialsProvider.track(build, c);
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(step.getCredentials()));
+        List<SSHUserPrivateKey> found = CredentialResolver.findAll(ids, build);
+        for (int i = 0; i < ids.size(); i++) {
+            String id = ids.get(i);
+            final SSHUserPrivateKey c = found.get(i);
+            if (c == null) {
+                AgentMetrics.count(AgentMetrics.Event.CREDENTIALS_MISSING, AgentMetrics.node(computer));
+            }
             if (c == null && !step.isIgnoreMissing()) {
                 throw new AbortException(Messages.SSHAgentBuildWrapper_CredentialsNotFound(id));
             }
@@ -117,18 +429,7 @@ final class SSHAgentStepExecution extends AbstractStepExecutionImpl {
         for (SSHUserPrivateKey userPrivateKey : userPrivateKeys) {
             listener.getLogger().println(Messages.SSHAgentBuildWrapper_UsingCredentials(SSHAgentBuildWrapper.description(userPrivateKey)));
         }
-
-        agent = new ExecRemoteAgent(launcher, listener);
-
-        for (SSHUserPrivateKey userPrivateKey : userPrivateKeys) {
-            final Secret passphrase = userPrivateKey.getPassphrase();
-            final String effectivePassphrase = passphrase == null ? null : passphrase.getPlainText();
-            for (String privateKey : userPrivateKey.getPrivateKeys()) {
-                agent.addIdentity(privateKey, effectivePassphrase, SSHAgentBuildWrapper.description(userPrivateKey), workspace, launcher, listener);
-            }
-        }
-
-        listener.getLogger().println(Messages.SSHAgentBuildWrapper_Started());
+        return userPrivateKeys;
     }
 
 }
@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A reference to an agent held by the {@link AgentCache}, which stays running when stopped until the cache evicts it.
+ * <p>
+ * The identities of a shared agent are fixed: adding more {@link AgentCache#detach detaches} from it, switching to a
+ * private agent with all identities.
+ */
+public final class SharedRemoteAgent implements RemoteAgent {
+    private static final long serialVersionUID = 1L;
+
+    @NonNull
+    private final RemoteAgent agent;
+
+    /** Identifies the cache entry, without giving away anything about the identities. */
+    @NonNull
+    private final String id;
+
+    /** The private agent used since identities were added, if any. */
+    @CheckForNull
+    private RemoteAgent detached;
+
+    SharedRemoteAgent(@NonNull RemoteAgent agent, @NonNull String id) {
+        this.agent = agent;
+        this.id = id;
+    }
+
+    @Override
+    public void addIdentity(String privateKey, String passphrase, String comment, FilePath ws, Launcher launcher,
+                            TaskListener listener) throws IOException, InterruptedException {
+        addIdentities(Collections.singletonList(new AgentIdentity(privateKey, passphrase, comment)), ws, launcher, listener);
+    }
+
+    @Override
+    public synchronized void addIdentities(List<AgentIdentity> identities, FilePath ws, Launcher launcher, TaskListener listener)
+            throws IOException, InterruptedException {
+        if (identities.isEmpty()) {
+            return;
+        }
+        if (detached == null) {
+            detached = AgentCache.get().detach(agent, id, identities, ws, launcher, listener);
+        } else {
+            detached.addIdentities(identities, ws, launcher, listener);
+        }
+    }
+
+    @Override
+    public synchronized Map<String, String> getEnv() {
+        return detached != null ? detached.getEnv() : agent.getEnv();
+    }
+
+    /**
+     * Releases the agent, which is only stopped if the cache does not hold it anymore, or stops the private agent.
+     */
+    @Override
+    public void stop(Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
+        RemoteAgent released = release(listener);
+        if (released != null) {
+            released.stop(launcher, listener);
+        }
+    }
+
+    /**
+     * Releases the agent, without stopping anything.
+     *
+     * @param listener for logging.
+     * @return the agent to stop: the private one, or the shared one if the cache does not hold it anymore; {@code null}
+     * if the shared one is kept running.
+     */
+    @CheckForNull
+    RemoteAgent release(@NonNull TaskListener listener) {
+        RemoteAgent detached;
+        synchronized (this) {
+            detached = this.detached;
+        }
+        if (detached != null) {
+            return detached;
+        }
+        return AgentCache.get().release(id, listener) ? agent : null;
+    }
+}
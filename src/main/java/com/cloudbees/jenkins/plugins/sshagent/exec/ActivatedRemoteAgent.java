@@ -0,0 +1,224 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent.exec;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentIdentity;
+import com.cloudbees.jenkins.plugins.sshagent.RemoteAgent;
+import com.cloudbees.jenkins.plugins.sshagent.exec.CommandTimeouts.Command;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * An {@code ssh-agent} started on demand: only a socket is reserved when the block starts, and {@code ssh-agent}
+ * is started and given its identities when a process first connects to it, so that blocks never using SSH do not
+ * pay for it.
+ * <p>
+ * Only {@code SSH_AUTH_SOCK} is exported, as there is no agent process to tell about up front. The identities are
+ * held by the node JVM until then, as with the in-process agent. Failures upon activation are reported to the listener
+ * the agent was started with, and identities which cannot be read on the controller are loaded right away instead, so
+ * that a wrong passphrase still fails the build.
+ */
+public final class ActivatedRemoteAgent implements RemoteAgent {
+    private static final long serialVersionUID = 1L;
+
+    private static final String AuthSocketVar = "SSH_AUTH_SOCK";
+
+    /** Identifies the {@link ActivationServer} on the node. */
+    private final String id;
+
+    /** Agent environment exported to the build. */
+    private final Map<String, String> agentEnv;
+
+    /**
+     * @param maxConcurrentLaunches bounds agents started at once on the node upon activation, if positive.
+     */
+    ActivatedRemoteAgent(VirtualChannel channel, TaskListener listener, String askpassHelper, @CheckForNull String tempDirectory,
+                         int maxConcurrentLaunches) throws IOException, InterruptedException {
+        id = UUID.randomUUID().toString();
+        // identities only come later, so allow for some having a passphrase
+        String socket = channel.call(new Start(id, listener, askpassHelper, tempDirectory,
+                CommandTimeouts.timeoutMillis(channel, Command.START), CommandTimeouts.timeoutMillis(channel, Command.ADD_WITH_PASSPHRASE),
+                CommandTimeouts.timeoutMillis(channel, Command.STOP), maxConcurrentLaunches));
+        agentEnv = new HashMap<>();
+        agentEnv.put(AuthSocketVar, socket);
+        listener.getLogger().println(AuthSocketVar + "=" + socket);
+    }
+
+    @Override
+    public void addIdentity(String privateKey, String passphrase, String comment, FilePath ws, Launcher launcher, TaskListener listener)
+            throws IOException, InterruptedException {
+        addIdentities(Collections.singletonList(new AgentIdentity(privateKey, passphrase, comment)), ws, launcher, listener);
+    }
+
+    /**
+     * Hands the identities to the node, which loads them on activation, or right away if already activated or if
+     * some could not be checked here.
+     */
+    @Override
+    public void addIdentities(List<AgentIdentity> identities, FilePath ws, Launcher launcher, TaskListener listener)
+            throws IOException, InterruptedException {
+        if (identities.isEmpty()) {
+            return;
+        }
+        boolean now = false;
+        for (AgentIdentity identity : identities) {
+            if (!identity.isReadable()) {
+                // let ssh-add tell
+                now = true;
+                break;
+            }
+        }
+        List<String> failures = DirectCommands.call(channel(launcher), new Add(id, identities, now));
+        if (!failures.isEmpty()) {
+            for (String failure : failures) {
+                listener.getLogger().println(com.cloudbees.jenkins.plugins.sshagent.Messages.SSHAgentBuildWrapper_UnableToReadKey(failure));
+            }
+            throw new AbortException("Failed to add some identities");
+        }
+    }
+
+    @Override
+    public Map<String, String> getEnv() {
+        return agentEnv;
+    }
+
+    /**
+     * Stops the agent, if it was ever started, and releases the socket.
+     */
+    @Override
+    public void stop(Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
+        Boolean activated = DirectCommands.call(channel(launcher), new Stop(id));
+        if (activated == null) {
+            // e.g. the node reconnected, which already took the agent down with the old channel
+            listener.getLogger().println("[ssh-agent] Agent on " + agentEnv.get(AuthSocketVar) + " was no longer running");
+        } else if (!activated) {
+            listener.getLogger().println(Messages.ActivatedRemoteAgent_NeverStarted());
+        }
+    }
+
+    private static VirtualChannel channel(Launcher launcher) throws IOException {
+        VirtualChannel channel = launcher.getChannel();
+        if (channel == null) {
+            throw new IOException("No channel to the node");
+        }
+        return channel;
+    }
+
+    private static final class Start extends MasterToSlaveCallable<String, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        /** Where to report failures upon activation. */
+        private final TaskListener listener;
+
+        private final String askpassHelper;
+
+        @CheckForNull
+        private final String tempDirectory;
+
+        private final long startTimeout;
+
+        private final long addTimeout;
+
+        private final long stopTimeout;
+
+        private final int maxConcurrentLaunches;
+
+        Start(String id, TaskListener listener, String askpassHelper, @CheckForNull String tempDirectory, long startTimeout,
+              long addTimeout, long stopTimeout, int maxConcurrentLaunches) {
+            this.id = id;
+            this.listener = listener;
+            this.askpassHelper = askpassHelper;
+            this.tempDirectory = tempDirectory;
+            this.startTimeout = startTimeout;
+            this.addTimeout = addTimeout;
+            this.stopTimeout = stopTimeout;
+            this.maxConcurrentLaunches = maxConcurrentLaunches;
+        }
+
+        @Override
+        public String call() throws IOException {
+            return ActivationServer.start(id, listener, askpassHelper, tempDirectory, startTimeout, addTimeout, stopTimeout,
+                    maxConcurrentLaunches).getSocket().toString();
+        }
+    }
+
+    private static final class Add extends MasterToSlaveCallable<List<String>, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        private final List<AgentIdentity> identities;
+
+        /** Whether to activate right away. */
+        private final boolean now;
+
+        Add(String id, List<AgentIdentity> identities, boolean now) {
+            this.id = id;
+            this.identities = new ArrayList<>(identities);
+            this.now = now;
+        }
+
+        /**
+         * @return comments of the identities which could not be loaded.
+         */
+        @Override
+        public List<String> call() throws IOException {
+            ActivationServer server = ActivationServer.get(id);
+            if (server == null) {
+                throw new AbortException("ssh-agent is not running");
+            }
+            return server.add(identities, now);
+        }
+    }
+
+    private static final class Stop extends MasterToSlaveCallable<Boolean, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        Stop(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public Boolean call() throws IOException {
+            return ActivationServer.remove(id);
+        }
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent.exec;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentIdentity;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Node side of {@link ActivatedRemoteAgent}: listens on the socket handed to the build, and only starts
+ * {@code ssh-agent} and loads the identities once a client connects, relaying each connection to it.
+ */
+final class ActivationServer {
+    private static final Logger LOGGER = Logger.getLogger(ActivationServer.class.getName());
+
+    /** Servers running in this JVM, keyed by {@link ActivatedRemoteAgent} id. */
+    private static final Map<String, ActivationServer> SERVERS = new ConcurrentHashMap<>();
+
+    /**
+     * Bounds agents started at once in this JVM upon activation, which the controller does not see, the way
+     * {@code LaunchLimiter} bounds starts from the controller; {@code null} until needed. Guarded by the class.
+     */
+    @CheckForNull
+    private static Semaphore launches;
+
+    /** Permits of {@link #launches}. */
+    private static int launchPermits;
+
+    private final Path directory;
+
+    private final Path socket;
+
+    private final ServerSocketChannel server;
+
+    /** Where to report failures upon activation, as long as the build is running. */
+    private final TaskListener listener;
+
+    private final String askpassHelper;
+
+    /** Where {@code ssh-agent} creates its socket, or {@code null} for its default. */
+    @CheckForNull
+    private final String tempDirectory;
+
+    private final long startTimeout;
+
+    private final long addTimeout;
+
+    private final long stopTimeout;
+
+    /** Bounds {@link #launches}, if positive. */
+    private final int maxConcurrentLaunches;
+
+    /** Identities to load once activated, dropped once handed to {@code ssh-agent}. */
+    private final List<AgentIdentity> pending = new ArrayList<>();
+
+    /** Environment of the started {@code ssh-agent}, or {@code null} until activated. */
+    @CheckForNull
+    private Map<String, String> agentEnv;
+
+    /** Why {@code ssh-agent} could not be started, if it could not. */
+    @CheckForNull
+    private IOException failure;
+
+    private boolean closed;
+
+    private ActivationServer(Path directory, Path socket, ServerSocketChannel server, TaskListener listener, String askpassHelper,
+                             @CheckForNull String tempDirectory, long startTimeout, long addTimeout, long stopTimeout,
+                             int maxConcurrentLaunches) {
+        this.directory = directory;
+        this.socket = socket;
+        this.server = server;
+        this.listener = listener;
+        this.askpassHelper = askpassHelper;
+        this.tempDirectory = tempDirectory;
+        this.startTimeout = startTimeout;
+        this.addTimeout = addTimeout;
+        this.stopTimeout = stopTimeout;
+        this.maxConcurrentLaunches = maxConcurrentLaunches;
+    }
+
+    /**
+     * Binds a new socket, starts listening on it and registers the server under the given id.
+     *
+     * @param tempDirectory         where to create the socket, and later that of {@code ssh-agent}, or {@code null} for
+     *                              the default temporary directory.
+     * @param maxConcurrentLaunches bounds agents started at once upon activation in this JVM, if positive.
+     */
+    static ActivationServer start(String id, TaskListener listener, String askpassHelper, @CheckForNull String tempDirectory,
+                                  long startTimeout, long addTimeout, long stopTimeout, int maxConcurrentLaunches)
+            throws IOException {
+        FileAttribute<?> owner = PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------"));
+        Path directory = tempDirectory == null
+                ? Files.createTempDirectory("ssh-", owner)
+                : Files.createTempDirectory(Path.of(tempDirectory), "ssh-", owner);
+        Path socket = directory.resolve("agent." + ProcessHandle.current().pid());
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(socket));
+        } catch (IOException x) {
+            server.close();
+            Files.deleteIfExists(directory);
+            throw x;
+        }
+        ActivationServer result = new ActivationServer(directory, socket, server, listener, askpassHelper, tempDirectory,
+                startTimeout, addTimeout, stopTimeout, maxConcurrentLaunches);
+        SERVERS.put(id, result);
+        Channel channel = Channel.current();
+        if (channel != null) {
+            // nobody could stop the ssh-agent we may have started once the controller is gone
+            channel.addListener(new Channel.Listener() {
+                @Override
+                public void onClosed(Channel channel, IOException cause) {
+                    remove(id);
+                }
+            });
+        }
+        Thread acceptor = new Thread(result::accept, "ssh-agent activation on " + socket);
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return result;
+    }
+
+    /**
+     * Looks up a running server.
+     *
+     * @return the server or {@code null} if it is not (or no longer) running in this JVM.
+     */
+    @CheckForNull
+    static ActivationServer get(String id) {
+        return SERVERS.get(id);
+    }
+
+    /**
+     * Stops and unregisters a server, along with its {@code ssh-agent} if one was started.
+     *
+     * @return {@code null} if the server was not running, otherwise whether it was ever activated.
+     */
+    @CheckForNull
+    static Boolean remove(String id) {
+        ActivationServer server = SERVERS.remove(id);
+        if (server == null) {
+            return null;
+        }
+        try {
+            return server.close();
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "Failed to clean up " + server.socket, x);
+            return true;
+        }
+    }
+
+    Path getSocket() {
+        return socket;
+    }
+
+    /**
+     * Adds identities, loading them right away if already activated.
+     *
+     * @param now whether to activate right away, e.g. to find out whether the identities can be loaded.
+     * @return the comments of the identities which could not be loaded.
+     */
+    synchronized List<String> add(List<AgentIdentity> identities, boolean now) throws IOException {
+        if (agentEnv != null) {
+            return DirectCommands.load(agentEnv, identities, askpassHelper, new StringBuilder(), new ArrayList<>(), addTimeout);
+        }
+        pending.addAll(identities);
+        return now ? launch().failed : List.of();
+    }
+
+    /**
+     * Starts {@code ssh-agent} with the pending identities, unless done already, reporting failures to the build.
+     *
+     * @return the socket of the started agent.
+     */
+    private synchronized Path activate() throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (agentEnv == null) {
+            DirectCommands.Outcome outcome;
+            try {
+                outcome = launch();
+            } catch (IOException x) {
+                report(Messages.ActivationServer_Failed(x.getMessage()));
+                throw x;
+            }
+            if (!outcome.failed.isEmpty()) {
+                for (String failure : outcome.failed) {
+                    report(com.cloudbees.jenkins.plugins.sshagent.Messages.SSHAgentBuildWrapper_UnableToReadKey(failure));
+                }
+                LOGGER.log(Level.WARNING, "Could not load {0} into ssh-agent on {1}: {2}",
+                        new Object[] {outcome.failed, socket, outcome.output});
+            }
+        }
+        return Path.of(agentEnv.get("SSH_AUTH_SOCK"));
+    }
+
+    /**
+     * Starts {@code ssh-agent} with the pending identities, which are dropped whatever happens: should it fail, later
+     * connections fail the same way rather than trying again without them.
+     */
+    private synchronized DirectCommands.Outcome launch() throws IOException {
+        if (failure != null) {
+            throw new IOException(failure.getMessage(), failure);
+        }
+        List<AgentIdentity> identities = new ArrayList<>(pending);
+        pending.clear();
+        Semaphore limit = launches(maxConcurrentLaunches);
+        try {
+            if (limit != null) {
+                limit.acquire();
+            }
+        } catch (InterruptedException x) {
+            throw (IOException) new InterruptedIOException().initCause(x);
+        }
+        try {
+            DirectCommands.Outcome outcome = DirectCommands.start(identities, askpassHelper, tempDirectory, startTimeout, addTimeout);
+            agentEnv = outcome.env;
+            return outcome;
+        } catch (IOException x) {
+            failure = x;
+            throw x;
+        } finally {
+            if (limit != null) {
+                limit.release();
+            }
+        }
+    }
+
+    /**
+     * Tells the build about a problem, if it is still listening.
+     */
+    private void report(String message) {
+        try {
+            listener.getLogger().println(message);
+        } catch (RuntimeException x) {
+            LOGGER.log(Level.FINE, "Could not report to the build: " + message, x);
+        }
+    }
+
+    /**
+     * @return the limit to wait for, or {@code null} if none.
+     */
+    @CheckForNull
+    private static synchronized Semaphore launches(int max) {
+        if (max <= 0) {
+            return null;
+        }
+        // as with LaunchLimiter, a changed limit applies to activations from now on
+        if (launches == null || launchPermits != max) {
+            launches = new Semaphore(max, true);
+            launchPermits = max;
+        }
+        return launches;
+    }
+
+    private void accept() {
+        try {
+            while (server.isOpen()) {
+                SocketChannel client = server.accept();
+                Thread handler = new Thread(() -> relay(client), "ssh-agent relay on " + socket);
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } catch (ClosedChannelException x) {
+            // stopped
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "ssh-agent activation on " + socket + " stopped accepting connections", x);
+        }
+    }
+
+    private void relay(SocketChannel client) {
+        try (SocketChannel c = client; SocketChannel agent = SocketChannel.open(UnixDomainSocketAddress.of(activate()))) {
+            Thread requests = new Thread(() -> pump(c, agent), "ssh-agent relay on " + socket);
+            requests.setDaemon(true);
+            requests.start();
+            pump(agent, c);
+        } catch (ClosedChannelException x) {
+            // stopped while the client was connected
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "ssh-agent activation on " + socket + " failed", x);
+        }
+    }
+
+    /**
+     * Copies one direction of a connection until its end.
+     */
+    private static void pump(SocketChannel from, SocketChannel to) {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        try {
+            while (from.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    to.write(buffer);
+                }
+                buffer.clear();
+            }
+            to.shutdownOutput();
+        } catch (IOException x) {
+            // the other direction closed both ends
+        }
+    }
+
+    /**
+     * @return whether {@code ssh-agent} was started.
+     */
+    private boolean close() throws IOException {
+        Map<String, String> env;
+        synchronized (this) {
+            closed = true;
+            env = agentEnv;
+            pending.clear();
+        }
+        try {
+            server.close();
+            if (env != null) {
+                DirectCommands.stop(env, stopTimeout);
+            }
+        } finally {
+            Files.deleteIfExists(socket);
+            Files.deleteIfExists(directory);
+        }
+        return env != null;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent.exec;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import com.cloudbees.jenkins.plugins.sshagent.AgentIdentity;
+import com.cloudbees.jenkins.plugins.sshagent.AgentMetrics;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import jenkins.util.SystemProperties;
+
+/**
+ * Derives the timeouts of {@code ssh-agent} and {@code ssh-add} from how long they recently took on the same node,
+ * so that a hung process is given up on after seconds rather than a minute where they normally take milliseconds.
+ * <p>
+ * Until enough durations were observed on a node, the {@link #CEILING} applies.
+ */
+final class CommandTimeouts {
+
+    /**
+     * Longest timeout, in seconds, also used for nodes without enough history.
+     */
+    static /* not final */ long CEILING = SystemProperties.getLong(CommandTimeouts.class.getName() + ".ceiling", 60L);
+
+    /**
+     * Shortest timeout, in seconds, so that a loaded node is not mistaken for a hung one.
+     */
+    static /* not final */ long FLOOR = SystemProperties.getLong(CommandTimeouts.class.getName() + ".floor", 5L);
+
+    /**
+     * Timeouts are this many times the 99th percentile of recent durations.
+     */
+    static /* not final */ int MULTIPLIER = SystemProperties.getInteger(CommandTimeouts.class.getName() + ".multiplier", 10);
+
+    /**
+     * Whether to start a second agent when starting one takes longer than the 95th percentile of recent startups.
+     */
+    static /* not final */ boolean HEDGE = SystemProperties.getBoolean(CommandTimeouts.class.getName() + ".hedge", true);
+
+    /** Number of recent durations kept per node and command. */
+    private static final int SAMPLES = 50;
+
+    /** Number of durations needed before deriving anything from them. */
+    private static final int MIN_SAMPLES = 10;
+
+    /**
+     * The commands timed.
+     */
+    enum Command {
+        /** {@code ssh-agent}. */
+        START,
+        /** {@code ssh-add}, per key without a passphrase. */
+        ADD,
+        /**
+         * {@code ssh-add}, per key with a passphrase, kept apart as the key derivation of such keys may take far longer
+         * than loading plain keys.
+         */
+        ADD_WITH_PASSPHRASE,
+        /** {@code ssh-agent -k}. */
+        STOP
+    }
+
+    /** Recent durations by node connection, so that they are forgotten when it goes away. */
+    private static final Map<VirtualChannel, Map<Command, History>> HISTORIES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private CommandTimeouts() {
+    }
+
+    /**
+     * Gets the timeout of a command.
+     *
+     * @param channel the channel to the node, or {@code null} if unknown.
+     * @param command the command.
+     * @param keys    the number of keys handled by the command, for {@link Command#ADD} and
+     *                {@link Command#ADD_WITH_PASSPHRASE}.
+     * @return the timeout, in milliseconds.
+     */
+    static long timeoutMillis(@CheckForNull VirtualChannel channel, @NonNull Command command, int keys) {
+        long ceiling = TimeUnit.SECONDS.toMillis(CEILING);
+        long p99 = percentileMillis(channel, command, 99);
+        if (p99 < 0) {
+            return ceiling;
+        }
+        long timeout = Math.max(TimeUnit.SECONDS.toMillis(FLOOR), p99 * MULTIPLIER * Math.max(1, keys));
+        return Math.min(timeout, ceiling);
+    }
+
+    /**
+     * Gets the timeout of a command handling at most one key.
+     *
+     * @see #timeoutMillis(VirtualChannel, Command, int)
+     */
+    static long timeoutMillis(@CheckForNull VirtualChannel channel, @NonNull Command command) {
+        return timeoutMillis(channel, command, 1);
+    }
+
+    /**
+     * Gets how long to wait for an agent to start, with some keys, before starting another one.
+     *
+     * @return the delay in milliseconds, or {@code -1} not to start another one.
+     */
+    static long hedgeDelayMillis(@CheckForNull VirtualChannel channel, int keys) {
+        if (!HEDGE) {
+            return -1;
+        }
+        long start = percentileMillis(channel, Command.START, 95);
+        if (start < 0) {
+            return -1;
+        }
+        if (keys == 0) {
+            return start;
+        }
+        long add = percentileMillis(channel, Command.ADD, 95);
+        return add < 0 ? -1 : start + add * keys;
+    }
+
+    /**
+     * Gets the command loading identities: should any have a passphrase, its history applies to all of them.
+     */
+    @NonNull
+    static Command add(@NonNull List<AgentIdentity> identities) {
+        return identities.stream().anyMatch(AgentIdentity::hasPassphrase) ? Command.ADD_WITH_PASSPHRASE : Command.ADD;
+    }
+
+    /**
+     * Records how long loading identities with a single {@code ssh-add} took, blaming keys with a passphrase for all of
+     * it if there are some, so that their history errs on the long side.
+     */
+    static void recordAdd(@CheckForNull VirtualChannel channel, @NonNull List<AgentIdentity> identities, long start) {
+        long withPassphrase = identities.stream().filter(AgentIdentity::hasPassphrase).count();
+        record(channel, add(identities), (int) (withPassphrase > 0 ? withPassphrase : identities.size()), start);
+    }
+
+    /**
+     * Records how long loading each identity took, as told by {@link DirectCommands.Outcome#loads}.
+     */
+    static void recordLoads(@CheckForNull VirtualChannel channel, @NonNull List<AgentIdentity> identities,
+                            @NonNull List<Long> loads) {
+        for (int i = 0; i < Math.min(identities.size(), loads.size()); i++) {
+            add(channel, add(List.of(identities.get(i))), loads.get(i));
+        }
+    }
+
+    /**
+     * Records how long a command took to complete successfully.
+     *
+     * @param channel the channel to the node, or {@code null} if unknown, in which case nothing is recorded.
+     * @param command the command.
+     * @param keys    the number of keys handled by the command, for {@link Command#ADD} and
+     *                {@link Command#ADD_WITH_PASSPHRASE}.
+     * @param start   the {@link System#nanoTime} when it started.
+     */
+    static void record(@CheckForNull VirtualChannel channel, @NonNull Command command, int keys, long start) {
+        add(channel, command, (System.nanoTime() - start) / Math.max(1, keys));
+    }
+
+    private static void add(@CheckForNull VirtualChannel channel, @NonNull Command command, long duration) {
+        if (channel == null) {
+            return;
+        }
+        History history;
+        synchronized (HISTORIES) {
+            history = HISTORIES.computeIfAbsent(channel, c -> new EnumMap<>(Command.class))
+                    .computeIfAbsent(command, c -> new History());
+        }
+        history.add(duration);
+    }
+
+    /**
+     * Waits for a process started through a launcher, which is killed should it take longer than its timeout.
+     *
+     * @param keys the number of keys handled by the command, for {@link Command#ADD} and
+     *             {@link Command#ADD_WITH_PASSPHRASE}.
+     * @return the exit code.
+     */
+    static int join(@NonNull Proc proc, @CheckForNull VirtualChannel channel, @NonNull Command command, int keys,
+                    @NonNull TaskListener listener) throws IOException, InterruptedException {
+        long timeout = timeoutMillis(channel, command, keys);
+        long start = System.nanoTime();
+        int status = proc.joinWithTimeout(timeout, TimeUnit.MILLISECONDS, listener);
+        if (status != 0 && System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(timeout)) {
+            timedOut(channel, command);
+        }
+        return status;
+    }
+
+    /**
+     * Counts a command killed for taking longer than its timeout.
+     */
+    static void timedOut(@CheckForNull VirtualChannel channel, @NonNull Command command) {
+        AgentMetrics.commandTimedOut(command.name().toLowerCase(Locale.ENGLISH), channel);
+    }
+
+    private static long percentileMillis(@CheckForNull VirtualChannel channel, @NonNull Command command, int percentile) {
+        if (channel == null) {
+            return -1;
+        }
+        History history;
+        synchronized (HISTORIES) {
+            Map<Command, History> histories = HISTORIES.get(channel);
+            history = histories == null ? null : histories.get(command);
+        }
+        if (history == null) {
+            return -1;
+        }
+        long nanos = history.percentile(percentile);
+        // round up, so that sub-millisecond durations do not yield zero
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos) + 1;
+    }
+
+    /**
+     * The most recent durations of a command on a node.
+     */
+    private static final class History {
+
+        private final long[] samples = new long[SAMPLES];
+
+        private int count;
+
+        private int next;
+
+        synchronized void add(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        synchronized long percentile(int percentile) {
+            if (count < MIN_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+            return sorted[Math.max(0, Math.min(index, count - 1))];
+        }
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent.exec;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentIdentity;
+import com.cloudbees.jenkins.plugins.sshagent.exec.CommandTimeouts.Command;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Runs {@code ssh-agent} and {@code ssh-add} straight from the node JVM, so that starting an agent and loading all
+ * its identities, or stopping it, costs a single remoting round trip rather than one per process, file and chmod.
+ * <p>
+ * Only usable when the launcher would run processes on the node itself, i.e. is not decorated.
+ */
+final class DirectCommands {
+
+    private static final Pattern VARIABLE = Pattern.compile("(SSH_AUTH_SOCK|SSH_AGENT_PID)=([^;]+);");
+
+    private DirectCommands() {
+    }
+
+    /**
+     * Thrown on the node when a command is killed for taking longer than its timeout.
+     */
+    static final class TimedOutException extends AbortException {
+        private static final long serialVersionUID = 1L;
+
+        @NonNull
+        final Command command;
+
+        TimedOutException(@NonNull Command command, String name) {
+            super("Timed out running " + name);
+            this.command = command;
+        }
+    }
+
+    /**
+     * Runs one of these callables on the node, counting commands timing out there.
+     */
+    static <V> V call(@NonNull VirtualChannel channel, @NonNull Callable<V, IOException> callable)
+            throws IOException, InterruptedException {
+        try {
+            return channel.call(callable);
+        } catch (TimedOutException x) {
+            CommandTimeouts.timedOut(channel, x.command);
+            throw x;
+        }
+    }
+
+    /**
+     * What happened on the node.
+     */
+    static final class Outcome implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        /** Environment of the started agent, if any. */
+        @CheckForNull
+        final Map<String, String> env;
+
+        /** Output of the processes, with secrets never being passed on their command line. */
+        @NonNull
+        final String output;
+
+        /** Comments of the identities which could not be loaded. */
+        @NonNull
+        final List<String> failed;
+
+        /** Digests of identities expected in the {@link NodeKeyCache} but not found, in which case nothing was done. */
+        @NonNull
+        final List<String> missing;
+
+        /** Time spent loading each identity, in nanoseconds, in the order they were given. */
+        @NonNull
+        final List<Long> loads;
+
+        Outcome(@CheckForNull Map<String, String> env, @NonNull String output, @NonNull List<String> failed,
+                @NonNull List<Long> loads) {
+            this(env, output, failed, List.of(), loads);
+        }
+
+        private Outcome(@CheckForNull Map<String, String> env, @NonNull String output, @NonNull List<String> failed,
+                        @NonNull List<String> missing, @NonNull List<Long> loads) {
+            this.env = env;
+            this.output = output;
+            this.failed = failed;
+            this.missing = missing;
+            this.loads = loads;
+        }
+
+        static Outcome missing(@NonNull List<String> missing) {
+            return new Outcome(null, "", List.of(), missing, List.of());
+        }
+    }
+
+    /**
+     * Starts an agent and loads identities into it.
+     */
+    static final class Start extends MasterToSlaveCallable<Outcome, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<NodeKeyCache.KeyRef> refs;
+
+        private final String askpassHelper;
+
+        @CheckForNull
+        private final String tempDirectory;
+
+        private final long ttl;
+
+        private final int maxEntries;
+
+        private final long startTimeout;
+
+        private final long addTimeout;
+
+        Start(@NonNull List<NodeKeyCache.KeyRef> refs, @NonNull String askpassHelper, @CheckForNull String tempDirectory,
+              long ttl, int maxEntries, long startTimeout, long addTimeout) {
+            this.refs = new ArrayList<>(refs);
+            this.askpassHelper = askpassHelper;
+            this.tempDirectory = tempDirectory;
+            this.ttl = ttl;
+            this.maxEntries = maxEntries;
+            this.startTimeout = startTimeout;
+            this.addTimeout = addTimeout;
+        }
+
+        @Override
+        public Outcome call() throws IOException {
+            List<String> missing = new ArrayList<>();
+            List<AgentIdentity> identities = NodeKeyCache.resolve(refs, ttl, maxEntries, missing);
+            if (!missing.isEmpty()) {
+                return Outcome.missing(missing);
+            }
+            return start(identities, askpassHelper, tempDirectory, startTimeout, addTimeout);
+        }
+    }
+
+    /**
+     * Loads identities into a running agent.
+     */
+    static final class Load extends MasterToSlaveCallable<Outcome, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String, String> agentEnv;
+
+        private final List<NodeKeyCache.KeyRef> refs;
+
+        private final String askpassHelper;
+
+        private final long ttl;
+
+        private final int maxEntries;
+
+        private final long addTimeout;
+
+        Load(@NonNull Map<String, String> agentEnv, @NonNull List<NodeKeyCache.KeyRef> refs, @NonNull String askpassHelper,
+             long ttl, int maxEntries, long addTimeout) {
+            this.agentEnv = new HashMap<>(agentEnv);
+            this.refs = new ArrayList<>(refs);
+            this.askpassHelper = askpassHelper;
+            this.ttl = ttl;
+            this.maxEntries = maxEntries;
+            this.addTimeout = addTimeout;
+        }
+
+        @Override
+        public Outcome call() throws IOException {
+            List<String> missing = new ArrayList<>();
+            List<AgentIdentity> identities = NodeKeyCache.resolve(refs, ttl, maxEntries, missing);
+            if (!missing.isEmpty()) {
+                return Outcome.missing(missing);
+            }
+            StringBuilder output = new StringBuilder();
+            List<Long> loads = new ArrayList<>();
+            List<String> failed = load(agentEnv, identities, askpassHelper, output, loads, addTimeout);
+            return new Outcome(null, output.toString(), failed, loads);
+        }
+    }
+
+    /**
+     * Stops an agent.
+     */
+    static final class Stop extends MasterToSlaveCallable<String, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String, String> agentEnv;
+
+        private final long timeout;
+
+        Stop(@NonNull Map<String, String> agentEnv, long timeout) {
+            this.agentEnv = new HashMap<>(agentEnv);
+            this.timeout = timeout;
+        }
+
+        @Override
+        public String call() throws IOException {
+            return stop(agentEnv, timeout);
+        }
+    }
+
+    /**
+     * Starts an agent and loads identities into it, from the node JVM.
+     *
+     * @param tempDirectory where {@code ssh-agent} creates its socket, or {@code null} for its default.
+     * @param startTimeout  in milliseconds.
+     * @param addTimeout    in milliseconds, for each identity.
+     */
+    static Outcome start(List<AgentIdentity> identities, String askpassHelper, @CheckForNull String tempDirectory,
+                         long startTimeout, long addTimeout) throws IOException {
+        StringBuilder output = new StringBuilder();
+        Map<String, String> agentEnv = tempDirectory == null ? Map.of() : Map.of("TMPDIR", tempDirectory);
+        if (run(Command.START, List.of("ssh-agent"), agentEnv, null, output, startTimeout) != 0) {
+            throw new AbortException("Failed to run ssh-agent: " + output);
+        }
+        Map<String, String> env = new HashMap<>();
+        Matcher m = VARIABLE.matcher(output);
+        while (m.find()) {
+            env.put(m.group(1), m.group(2));
+        }
+        if (!env.containsKey("SSH_AUTH_SOCK")) {
+            throw new AbortException("Unexpected ssh-agent output: " + output);
+        }
+        StringBuilder loadOutput = new StringBuilder();
+        List<Long> loads = new ArrayList<>();
+        try {
+            List<String> failed = load(env, identities, askpassHelper, loadOutput, loads, addTimeout);
+            return new Outcome(env, loadOutput.toString(), failed, loads);
+        } catch (IOException | RuntimeException x) {
+            // nobody else knows about the agent yet
+            try {
+                stop(env, startTimeout);
+            } catch (IOException | RuntimeException x2) {
+                x.addSuppressed(x2);
+            }
+            throw x;
+        }
+    }
+
+    /**
+     * Stops an agent, from the node JVM.
+     *
+     * @param timeout in milliseconds.
+     * @return the output of {@code ssh-agent -k}.
+     */
+    static String stop(Map<String, String> agentEnv, long timeout) throws IOException {
+        StringBuilder output = new StringBuilder();
+        if (run(Command.STOP, List.of("ssh-agent", "-k"), agentEnv, null, output, timeout) != 0) {
+            throw new AbortException("Failed to run ssh-agent -k");
+        }
+        return output.toString();
+    }
+
+    /**
+     * Streams each key to its own {@code ssh-add -}, as {@link ExecRemoteAgent} does through the launcher.
+     *
+     * @param loads receives the time spent loading each identity, in nanoseconds.
+     * @return the comments of the identities which could not be loaded.
+     */
+    static List<String> load(Map<String, String> agentEnv, List<AgentIdentity> identities, String askpassHelper,
+                             StringBuilder output, List<Long> loads, long timeout) throws IOException {
+        List<String> failed = new ArrayList<>();
+        for (AgentIdentity identity : identities) {
+            Map<String, String> env = new HashMap<>(agentEnv);
+            if (identity.getPassphrase() != null) {
+                env.put("SSH_PASSPHRASE", identity.getPassphrase());
+                env.put("DISPLAY", "bogus"); // just to force using SSH_ASKPASS
+                env.put("SSH_ASKPASS", askpassHelper);
+                env.put("SSH_ASKPASS_REQUIRE", "force");
+            }
+            String privateKey = identity.getPrivateKey();
+            if (!privateKey.endsWith("\n")) {
+                privateKey += "\n";
+            }
+            Command command = identity.hasPassphrase() ? Command.ADD_WITH_PASSPHRASE : Command.ADD;
+            long start = System.nanoTime();
+            int exitCode = run(command, List.of("ssh-add", "-"), env, privateKey, output, timeout);
+            loads.add(System.nanoTime() - start);
+            if (exitCode != 0) {
+                failed.add(identity.getComment());
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Runs a process, killing it if it takes longer than the timeout.
+     *
+     * @param command the command being run, for {@link TimedOutException}.
+     * @param timeout in milliseconds.
+     */
+    private static int run(Command command, List<String> cmds, Map<String, String> env, @CheckForNull String stdin,
+                           StringBuilder output, long timeout) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(cmds).redirectErrorStream(true);
+        pb.environment().putAll(env);
+        Process p = pb.start();
+        try {
+            // read aside, as the output only ends once the process does
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Thread reader = new Thread(() -> {
+                try (InputStream is = p.getInputStream()) {
+                    is.transferTo(out);
+                } catch (IOException x) {
+                    // killed
+                }
+            }, "output of " + cmds.get(0));
+            reader.setDaemon(true);
+            reader.start();
+            try (OutputStream os = p.getOutputStream()) {
+                if (stdin != null) {
+                    os.write(stdin.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            if (!p.waitFor(timeout, TimeUnit.MILLISECONDS)) {
+                p.destroyForcibly();
+                throw new TimedOutException(command, cmds.get(0));
+            }
+            reader.join(timeout);
+            output.append(out.toString(StandardCharsets.UTF_8));
+            return p.exitValue();
+        } catch (InterruptedException x) {
+            throw (IOException) new InterruptedIOException().initCause(x);
+        } finally {
+            if (p.isAlive()) {
+                p.destroyForcibly();
+            }
+        }
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent.exec;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentCapabilities;
+import com.cloudbees.jenkins.plugins.sshagent.AgentReaper;
+import com.cloudbees.jenkins.plugins.sshagent.LaunchLimiter;
+import com.cloudbees.jenkins.plugins.sshagent.SSHAgentNodeProperty;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Launcher;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.OfflineCause;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+
+/**
+ * Keeps idle {@link ExecRemoteAgent}s started on nodes with a {@link SSHAgentNodeProperty#getPoolSize() pool size},
+ * so that builds starting together do not each wait for a new {@code ssh-agent}. An agent is only ever leased once:
+ * it is stopped when the build is done, and replaced by a fresh one in the background.
+ * <p>
+ * Pools are kept by node name, so that agents leased before a controller restart can still be returned. Pooled agents
+ * are registered with the {@link AgentReaper}, which kills those the pool forgot about, e.g. as the node disconnected.
+ */
+@Extension
+public final class ExecAgentPool extends AsyncPeriodicWork implements AgentReaper.Owner {
+
+    private static final Logger LOGGER = Logger.getLogger(ExecAgentPool.class.getName());
+
+    /** Guarded by {@code this}. */
+    private final Map<String, NodePool> pools = new HashMap<>();
+
+    public ExecAgentPool() {
+        super("SSH agent pool maintenance");
+    }
+
+    @NonNull
+    static ExecAgentPool get() {
+        return ExtensionList.lookupSingleton(ExecAgentPool.class);
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(1);
+    }
+
+    @Override
+    public synchronized boolean holds(@NonNull Computer computer, long pid) {
+        NodePool pool = pools.get(computer.getName());
+        if (pool == null) {
+            return false;
+        }
+        if (pool.leased.contains(pid)) {
+            return true;
+        }
+        for (Entry entry : pool.idle) {
+            if (pid(entry.agent) == pid) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        List<String> names;
+        synchronized (this) {
+            names = new ArrayList<>(pools.keySet());
+        }
+        for (String name : names) {
+            maintain(name);
+        }
+    }
+
+    /**
+     * Leases an agent, starting one if none is idle.
+     *
+     * @param computer     the computer to run the agent on.
+     * @param launcher     the launcher for the node.
+     * @param listener     for logging.
+     * @param capabilities what the node was found to support.
+     * @return the leased agent, or {@code null} if the node does not use a pool.
+     */
+    @CheckForNull
+    PooledRemoteAgent lease(@NonNull Computer computer, @NonNull Launcher launcher, @NonNull TaskListener listener,
+                            @NonNull AgentCapabilities capabilities) throws IOException, InterruptedException {
+        SSHAgentNodeProperty settings = SSHAgentNodeProperty.of(computer.getNode());
+        if (settings.getPoolSize() == 0) {
+            return null;
+        }
+        String name = computer.getName();
+        long now = System.currentTimeMillis();
+        Entry leased = null;
+        List<ExecRemoteAgent> expired = new ArrayList<>();
+        synchronized (this) {
+            NodePool pool = pools.computeIfAbsent(name, k -> new NodePool());
+            pool.lastLease = now;
+            while (leased == null && !pool.idle.isEmpty()) {
+                Entry entry = pool.idle.poll();
+                if (entry.isExpired(now, settings)) {
+                    expired.add(entry.agent);
+                } else {
+                    leased = entry;
+                    // held until the run registers it as its own
+                    pool.leased.add(pid(entry.agent));
+                }
+            }
+        }
+        discard(computer, expired);
+        refill(computer, settings);
+        if (leased == null) {
+            return new PooledRemoteAgent(ExecRemoteAgentFactory.newAgent(launcher, listener, capabilities), name);
+        }
+        listener.getLogger().println(Messages.ExecAgentPool_Leased());
+        for (Map.Entry<String, String> variable : leased.agent.getEnv().entrySet()) {
+            listener.getLogger().println(variable.getKey() + "=" + variable.getValue());
+        }
+        return new PooledRemoteAgent(leased.agent, name);
+    }
+
+    /**
+     * Stops a leased agent, rather than handing it to another build which could then reach anything the former one
+     * left in it, and tops up the pool of its node.
+     *
+     * @param agent    the agent.
+     * @param name     the name of the node the agent runs on.
+     * @param launcher the launcher for the node.
+     * @param listener for logging.
+     */
+    void release(@NonNull ExecRemoteAgent agent, @NonNull String name, @NonNull Launcher launcher,
+                 @NonNull TaskListener listener) throws IOException, InterruptedException {
+        synchronized (this) {
+            NodePool pool = pools.get(name);
+            if (pool != null) {
+                pool.leased.remove(pid(agent));
+            }
+        }
+        try {
+            agent.stop(launcher, listener);
+        } finally {
+            Jenkins jenkins = Jenkins.getInstanceOrNull();
+            Computer computer = jenkins == null ? null : jenkins.getComputer(name);
+            if (computer != null) {
+                refill(computer, SSHAgentNodeProperty.of(computer.getNode()));
+            }
+        }
+    }
+
+    /**
+     * Starts agents in the background until the pool of a computer is full.
+     */
+    private void refill(@NonNull Computer computer, @NonNull SSHAgentNodeProperty settings) {
+        NodePool pool;
+        int wanted;
+        synchronized (this) {
+            pool = pools.get(computer.getName());
+            if (pool == null) {
+                return;
+            }
+            wanted = settings.getPoolSize() - pool.idle.size() - pool.pending;
+            if (wanted <= 0) {
+                return;
+            }
+            pool.pending += wanted;
+        }
+        for (int i = 0; i < wanted; i++) {
+            Computer.threadPoolForRemoting.submit(() -> spawn(computer, pool, settings));
+        }
+    }
+
+    private void spawn(@NonNull Computer computer, @NonNull NodePool pool, @NonNull SSHAgentNodeProperty settings) {
+        ExecRemoteAgent agent = null;
+        Launcher launcher = null;
+        try {
+            Node node = computer.getNode();
+            if (node != null && computer.isOnline()) {
+                launcher = node.createLauncher(TaskListener.NULL);
+                // queued behind builds starting agents, as refills are not urgent
+                try (LaunchLimiter.Permit permit = LaunchLimiter.acquire(computer)) {
+                    agent = ExecRemoteAgentFactory.newAgent(launcher, TaskListener.NULL, AgentCapabilities.of(computer, launcher));
+                }
+            }
+        } catch (IOException | RuntimeException x) {
+            LOGGER.log(Level.FINE, "Could not pre-start an agent on " + computer.getName(), x);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        } finally {
+            boolean kept = false;
+            synchronized (this) {
+                pool.pending--;
+                if (agent != null && pools.get(computer.getName()) == pool && pool.idle.size() < settings.getPoolSize()) {
+                    pool.idle.add(new Entry(agent, System.currentTimeMillis()));
+                    kept = true;
+                }
+            }
+            if (agent != null && !kept) {
+                stop(agent, launcher, computer.getName());
+            } else if (kept) {
+                AgentReaper.register(agent, computer, launcher, this);
+            }
+        }
+    }
+
+    /**
+     * Stops idle agents which expired, and all of them once the pool was not used for a while.
+     */
+    private void maintain(@NonNull String name) {
+        Computer computer = Jenkins.get().getComputer(name);
+        SSHAgentNodeProperty settings = SSHAgentNodeProperty.of(computer == null ? null : computer.getNode());
+        long now = System.currentTimeMillis();
+        List<ExecRemoteAgent> discarded = new ArrayList<>();
+        boolean used;
+        synchronized (this) {
+            NodePool pool = pools.get(name);
+            if (pool == null) {
+                return;
+            }
+            used = now - pool.lastLease < TimeUnit.MINUTES.toMillis(settings.getPoolIdleTimeout());
+            if (computer == null || settings.getPoolSize() == 0 || !used) {
+                for (Entry entry : pool.idle) {
+                    discarded.add(entry.agent);
+                }
+                pools.remove(name);
+            } else {
+                for (Iterator<Entry> it = pool.idle.iterator(); it.hasNext(); ) {
+                    Entry entry = it.next();
+                    if (entry.isExpired(now, settings) || pool.idle.size() > settings.getPoolSize()) {
+                        discarded.add(entry.agent);
+                        it.remove();
+                    }
+                }
+            }
+        }
+        if (computer != null) {
+            discard(computer, discarded);
+            if (used) {
+                refill(computer, settings);
+            }
+        }
+    }
+
+    private void discard(@NonNull Computer computer, @NonNull List<ExecRemoteAgent> agents) {
+        if (agents.isEmpty()) {
+            return;
+        }
+        Computer.threadPoolForRemoting.submit(() -> {
+            Node node = computer.getNode();
+            if (node == null || computer.isOffline()) {
+                LOGGER.log(Level.FINE, "{0} is gone, leaving {1} agents behind", new Object[] {computer.getName(), agents.size()});
+                return;
+            }
+            Launcher launcher = node.createLauncher(TaskListener.NULL);
+            for (ExecRemoteAgent agent : agents) {
+                stop(agent, launcher, computer.getName());
+            }
+        });
+    }
+
+    private static void stop(@NonNull ExecRemoteAgent agent, @CheckForNull Launcher launcher, @NonNull String name) {
+        if (launcher == null) {
+            return;
+        }
+        try {
+            agent.stop(launcher, TaskListener.NULL);
+        } catch (IOException | RuntimeException x) {
+            LOGGER.log(Level.FINE, "Could not stop a pooled agent on " + name, x);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The process ID of an agent, or {@code -1} if unknown.
+     */
+    private static long pid(@NonNull ExecRemoteAgent agent) {
+        try {
+            return Long.parseLong(agent.getEnv().getOrDefault("SSH_AGENT_PID", "-1").trim());
+        } catch (NumberFormatException x) {
+            return -1;
+        }
+    }
+
+    private static final class NodePool {
+        final Deque<Entry> idle = new ArrayDeque<>();
+        /** Process IDs of agents leased from {@link #idle}, until returned. */
+        final Set<Long> leased = new HashSet<>();
+        int pending;
+        long lastLease = System.currentTimeMillis();
+    }
+
+    private static final class Entry {
+        final ExecRemoteAgent agent;
+        final long created;
+
+        Entry(ExecRemoteAgent agent, long created) {
+            this.agent = agent;
+            this.created = created;
+        }
+
+        boolean isExpired(long now, SSHAgentNodeProperty settings) {
+            return now - created >= TimeUnit.MINUTES.toMillis(settings.getPoolMaxAge());
+        }
+    }
+
+    /**
+     * Pre-starts agents as nodes connect, and forgets about them when they disconnect, for the {@link AgentReaper} to
+     * kill once the node is back.
+     */
+    @Extension
+    public static final class ComputerListenerImpl extends ComputerListener {
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            SSHAgentNodeProperty settings = SSHAgentNodeProperty.of(c.getNode());
+            if (settings.getPoolSize() > 0) {
+                ExecAgentPool pool = get();
+                synchronized (pool) {
+                    pool.pools.computeIfAbsent(c.getName(), k -> new NodePool());
+                }
+                pool.refill(c, settings);
+            }
+        }
+
+        @Override
+        public void onOffline(@NonNull Computer c, @CheckForNull OfflineCause cause) {
+            ExecAgentPool pool = get();
+            synchronized (pool) {
+                NodePool removed = pool.pools.remove(c.getName());
+                if (removed != null && !removed.idle.isEmpty()) {
+                    // processes on the node survive the connection, but are only reachable again once it reconnects
+                    LOGGER.log(Level.FINE, "{0} went offline with {1} idle agents", new Object[] {c.getName(), removed.idle.size()});
+                }
+            }
+        }
+    }
+}
@@ -24,39 +24,205 @@
 
 package com.cloudbees.jenkins.plugins.sshagent.exec;
 
+import com.cloudbees.jenkins.plugins.sshagent.AgentIdentity;
+import com.cloudbees.jenkins.plugins.sshagent.Messages;
+import com.cloudbees.jenkins.plugins.sshagent.RemoteAgent;
+import com.cloudbees.jenkins.plugins.sshagent.exec.CommandTimeouts.Command;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.AbortException;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
 import hudson.slaves.WorkspaceList;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Runs a native SSH agent installed on a system.
  */
-public final class ExecRemoteAgent implements Serializable {
+public final class ExecRemoteAgent implements RemoteAgent {
+    private static final long serialVersionUID = -2198217182904184591L; // as computed before implementing RemoteAgent
+
     private static final String AuthSocketVar = "SSH_AUTH_SOCK";
     private static final String AgentPidVar = "SSH_AGENT_PID";
 
     /** Agent environment used for {@code ssh-add} and {@code ssh-agent -k}. */
     private final Map<String, String> agentEnv;
 
+    /** Whether keys are streamed to {@code ssh-add -} rather than written to temporary files. */
+    private final boolean stdin;
+
+    /** {@code SSH_ASKPASS} helper installed on the node, or {@code null} to use a script per {@code ssh-add}. */
+    @CheckForNull
+    private final String askpassHelper;
+
+    /**
+     * Whether {@code ssh-add} honours {@code SSH_ASKPASS_REQUIRE}, so that one script may answer the passphrase
+     * prompts of several keys.
+     */
+    private final boolean askpassRequire;
+
+    /** Whether processes are run straight from the node JVM with {@link DirectCommands}, when the launcher allows. */
+    private final boolean direct;
+
+    /** {@link com.cloudbees.jenkins.plugins.sshagent.AgentCapabilities#getRuntimeDirectory() Directory} for the socket and temporary files, or {@code null}. */
+    @CheckForNull
+    private final String tempDirectory;
+
+    /** Time spent loading each identity the agent was started with, in nanoseconds, see {@link #startDirect}. */
+    private transient List<Long> startupLoads = List.of();
+
     public ExecRemoteAgent(Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
+        this(launcher, listener, false, null);
+    }
+
+    /**
+     * Starts an agent.
+     *
+     * @param stdin         whether {@code ssh-add -} may be used to load keys without temporary files.
+     * @param askpassHelper an {@code SSH_ASKPASS} program printing {@code $SSH_PASSPHRASE}, or {@code null}.
+     */
+    public ExecRemoteAgent(Launcher launcher, TaskListener listener, boolean stdin, @CheckForNull String askpassHelper)
+            throws IOException, InterruptedException {
+        this(launcher, listener, stdin, askpassHelper, false, null);
+    }
+
+    /**
+     * Starts an agent.
+     *
+     * @param stdin          whether {@code ssh-add -} may be used to load keys without temporary files.
+     * @param askpassHelper  an {@code SSH_ASKPASS} program printing {@code $SSH_PASSPHRASE}, or {@code null}.
+     * @param askpassRequire whether {@code ssh-add} honours {@code SSH_ASKPASS_REQUIRE}, see
+     *                       {@link com.cloudbees.jenkins.plugins.sshagent.AgentCapabilities#isAskpassRequireSupported()}.
+     * @param tempDirectory  a directory on the node for the socket and temporary files, or {@code null} to use the
+     *                       defaults of {@code ssh-agent} and the workspace.
+     */
+    public ExecRemoteAgent(Launcher launcher, TaskListener listener, boolean stdin, @CheckForNull String askpassHelper,
+                           boolean askpassRequire, @CheckForNull String tempDirectory) throws IOException, InterruptedException {
+        this.stdin = stdin;
+        this.askpassHelper = askpassHelper;
+        this.askpassRequire = askpassRequire;
+        this.direct = false;
+        this.tempDirectory = tempDirectory;
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        if (launcher.launch().cmds("ssh-agent").stdout(baos).start()
-                .joinWithTimeout(1, TimeUnit.MINUTES, listener) != 0) {
+        VirtualChannel channel = launcher.getChannel();
+        long start = System.nanoTime();
+        Map<String, String> env = new HashMap<>();
+        if (tempDirectory != null) {
+            // where ssh-agent creates its socket directory
+            env.put("TMPDIR", tempDirectory);
+        }
+        if (CommandTimeouts.join(launcher.launch().cmds("ssh-agent").envs(env).stdout(baos).start(),
+                channel, Command.START, 1, listener) != 0) {
             String reason = new String(baos.toByteArray(), StandardCharsets.US_ASCII);
             throw new AbortException("Failed to run ssh-agent: " + reason);
         }
+        CommandTimeouts.record(channel, Command.START, 1, start);
         agentEnv = parseAgentEnv(new String(baos.toByteArray(), StandardCharsets.US_ASCII), listener); // TODO could include local filenames, better to look up remote charset
     }
 
+    private ExecRemoteAgent(Map<String, String> agentEnv, String askpassHelper, @CheckForNull String tempDirectory) {
+        this.agentEnv = agentEnv;
+        this.stdin = true;
+        this.askpassHelper = askpassHelper;
+        this.askpassRequire = false;
+        this.direct = true;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Starts an agent and loads identities into it in a single round trip, see {@link DirectCommands}.
+     *
+     * @param channel       the channel to the node, on which the launcher would run processes directly.
+     * @param askpassHelper an {@code SSH_ASKPASS} program printing {@code $SSH_PASSPHRASE}.
+     * @param tempDirectory a directory on the node for the socket, or {@code null}.
+     */
+    static ExecRemoteAgent startDirect(VirtualChannel channel, TaskListener listener, List<AgentIdentity> identities,
+                                       String askpassHelper, @CheckForNull String tempDirectory) throws IOException, InterruptedException {
+        if (!identities.isEmpty()) {
+            listener.getLogger().println("Running ssh-add (command line suppressed)");
+        }
+        long startTimeout = CommandTimeouts.timeoutMillis(channel, Command.START);
+        long addTimeout = CommandTimeouts.timeoutMillis(channel, CommandTimeouts.add(identities));
+        long start = System.nanoTime();
+        DirectCommands.Outcome outcome = DirectCommands.call(channel, new DirectCommands.Start(
+                KeyCacheMirror.refs(channel, identities, false), askpassHelper, tempDirectory, KeyCacheMirror.ttlMillis(),
+                KeyCacheMirror.MAX_ENTRIES, startTimeout, addTimeout));
+        if (!outcome.missing.isEmpty()) {
+            KeyCacheMirror.missing(channel, outcome.missing);
+            start = System.nanoTime();
+            outcome = DirectCommands.call(channel, new DirectCommands.Start(
+                    KeyCacheMirror.refs(channel, identities, true), askpassHelper, tempDirectory, KeyCacheMirror.ttlMillis(),
+                    KeyCacheMirror.MAX_ENTRIES, startTimeout, addTimeout));
+        }
+        if (identities.isEmpty()) {
+            CommandTimeouts.record(channel, Command.START, 1, start);
+        }
+        CommandTimeouts.recordLoads(channel, identities, outcome.loads);
+        ExecRemoteAgent agent = new ExecRemoteAgent(outcome.env, askpassHelper, tempDirectory);
+        agent.startupLoads = outcome.loads;
+        listener.getLogger().println(AuthSocketVar + "=" + agent.agentEnv.get(AuthSocketVar));
+        listener.getLogger().println(AgentPidVar + "=" + agent.agentEnv.get(AgentPidVar));
+        try {
+            agent.report(outcome, listener);
+        } catch (AbortException x) {
+            try {
+                DirectCommands.call(channel, new DirectCommands.Stop(agent.agentEnv, CommandTimeouts.timeoutMillis(channel, Command.STOP)));
+            } catch (IOException x2) {
+                x.addSuppressed(x2);
+            }
+            throw x;
+        }
+        return agent;
+    }
+
+    /**
+     * Time spent loading each identity the agent was started with by {@link #startDirect}, in nanoseconds.
+     */
+    List<Long> getStartupLoads() {
+        return startupLoads == null ? List.of() : startupLoads;
+    }
+
+    /**
+     * Gets the channel to use {@link DirectCommands} through, if this agent and the launcher allow.
+     */
+    @CheckForNull
+    private VirtualChannel directChannel(Launcher launcher) {
+        return direct && askpassHelper != null && !(launcher instanceof Launcher.DecoratedLauncher) ? launcher.getChannel() : null;
+    }
+
+    /**
+     * Gets the directory for temporary files, preferring the {@link #tempDirectory} over the workspace.
+     */
+    private FilePath tempDir(@CheckForNull FilePath ws, Launcher launcher) throws IOException {
+        VirtualChannel channel = launcher.getChannel();
+        if (tempDirectory != null && channel != null && !(launcher instanceof Launcher.DecoratedLauncher)) {
+            return new FilePath(channel, tempDirectory);
+        }
+        FilePath temp = ws == null ? null : WorkspaceList.tempDir(ws);
+        if (temp == null) {
+            throw new IOException("No temp dir in " + ws);
+        }
+        return temp;
+    }
+
+    private void report(DirectCommands.Outcome outcome, TaskListener listener) throws AbortException {
+        listener.getLogger().print(outcome.output);
+        if (!outcome.failed.isEmpty()) {
+            for (String comment : outcome.failed) {
+                listener.getLogger().println(Messages.SSHAgentBuildWrapper_UnableToReadKey(comment));
+            }
+            throw new AbortException("Failed to run ssh-add");
+        }
+    }
+
     /**
      * Adds the provided identity to the agent.
      *
@@ -65,12 +231,10 @@ public final class ExecRemoteAgent implements Serializable {
      * @param comment    the comment to give to the key.
      * @param listener   for logging.
      */
+    @Override
     public void addIdentity(String privateKey, final String passphrase, String comment, FilePath ws, Launcher launcher, TaskListener listener)
             throws IOException, InterruptedException {
-        FilePath temp = WorkspaceList.tempDir(ws);
-        if (temp == null) {
-            throw new IOException("No temp dir in " + ws);
-        }
+        FilePath temp = tempDir(ws, launcher);
         FilePath keyFile = temp.createTextTempFile("private_key_", ".key", privateKey);
         try {
             keyFile.chmod(0600);
@@ -88,10 +252,13 @@ public final class ExecRemoteAgent implements Serializable {
                 // as the next command is in quiet mode, we just add a message to the log
                 listener.getLogger().println("Running ssh-add (command line suppressed)");
                 
-                if (launcher.launch().quiet(true).cmds("ssh-add", keyFile.getRemote()).envs(env)
-                        .stdout(listener).start().joinWithTimeout(1, TimeUnit.MINUTES, listener) != 0) {
+                long start = System.nanoTime();
+                Command command = passphrase != null ? Command.ADD_WITH_PASSPHRASE : Command.ADD;
+                if (CommandTimeouts.join(launcher.launch().quiet(true).cmds("ssh-add", keyFile.getRemote()).envs(env).stdout(listener).start(),
+                        launcher.getChannel(), command, 1, listener) != 0) {
                     throw new AbortException("Failed to run ssh-add");
                 }
+                CommandTimeouts.record(launcher.getChannel(), command, 1, start);
             } finally {
                 if (askpass != null && askpass.exists()) { // the ASKPASS script is self-deleting, anyway rather try to delete it in case of some error
                     askpass.delete();
@@ -102,6 +269,177 @@ public final class ExecRemoteAgent implements Serializable {
         }
     }
 
+    /**
+     * Adds all the identities with a single {@code ssh-add}.
+     * <p>
+     * Passphrases are handed over through one {@code SSH_ASKPASS} script, which picks the passphrase matching the key
+     * file named in the prompt and gives up on a key when asked again after a bad passphrase. That needs
+     * {@code SSH_ASKPASS_REQUIRE}, without which keys with a passphrase are loaded one {@code ssh-add} each.
+     * Should the single {@code ssh-add} fail, the keys not reported as added are retried one by one, so that the
+     * failing ones are told apart by exit status rather than by message.
+     * <p>
+     * In {@code stdin} mode keys are streamed to {@code ssh-add -} instead, and only those failing that way are
+     * retried from temporary files, which also takes care of reporting them.
+     */
+    @Override
+    public void addIdentities(List<AgentIdentity> identities, FilePath ws, Launcher launcher, TaskListener listener)
+            throws IOException, InterruptedException {
+        VirtualChannel channel = directChannel(launcher);
+        if (channel != null) {
+            listener.getLogger().println("Running ssh-add (command line suppressed)");
+            long addTimeout = CommandTimeouts.timeoutMillis(channel, CommandTimeouts.add(identities));
+            long start = System.nanoTime();
+            DirectCommands.Outcome outcome = DirectCommands.call(channel, new DirectCommands.Load(agentEnv,
+                    KeyCacheMirror.refs(channel, identities, false), askpassHelper, KeyCacheMirror.ttlMillis(), KeyCacheMirror.MAX_ENTRIES,
+                    addTimeout));
+            if (!outcome.missing.isEmpty()) {
+                KeyCacheMirror.missing(channel, outcome.missing);
+                start = System.nanoTime();
+                outcome = DirectCommands.call(channel, new DirectCommands.Load(agentEnv,
+                        KeyCacheMirror.refs(channel, identities, true), askpassHelper, KeyCacheMirror.ttlMillis(), KeyCacheMirror.MAX_ENTRIES,
+                        addTimeout));
+            }
+            report(outcome, listener);
+            CommandTimeouts.recordLoads(channel, identities, outcome.loads);
+            return;
+        }
+        if (stdin) {
+            identities = addIdentitiesFromStdin(identities, launcher, listener);
+        }
+        if (identities.isEmpty()) {
+            return;
+        }
+        if (!askpassRequire && identities.stream().anyMatch(AgentIdentity::hasPassphrase)) {
+            addEach(identities, ws, launcher, listener);
+            return;
+        }
+        FilePath temp = tempDir(ws, launcher);
+        List<FilePath> keyFiles = new ArrayList<>();
+        FilePath askpass = null;
+        try {
+            Map<String,String> env = new HashMap<>(agentEnv);
+            StringBuilder script = new StringBuilder("#!/bin/sh\ncase \"$1\" in\n  \"Bad passphrase\"*) exit 1 ;;\n");
+            boolean askpassNeeded = false;
+            List<String> cmds = new ArrayList<>();
+            cmds.add("ssh-add");
+            for (int i = 0; i < identities.size(); i++) {
+                AgentIdentity identity = identities.get(i);
+                FilePath keyFile = temp.createTextTempFile("private_key_", ".key", identity.getPrivateKey());
+                keyFiles.add(keyFile);
+                keyFile.chmod(0600);
+                cmds.add(keyFile.getRemote());
+                if (identity.getPassphrase() != null) {
+                    // temp file names are plain alphanumerics, so they can be matched without quoting
+                    env.put("SSH_PASSPHRASE_" + i, identity.getPassphrase());
+                    askpassNeeded = true;
+                    script.append("  *").append(keyFile.getName()).append("*) printf '%s\\n' \"$SSH_PASSPHRASE_").append(i).append("\" ;;\n");
+                }
+            }
+            script.append("esac\n");
+            if (askpassNeeded) {
+                askpass = temp.createTextTempFile("askpass_", ".sh", script.toString());
+                askpass.chmod(0700);
+                env.put("DISPLAY", "bogus"); // just to force using SSH_ASKPASS
+                env.put("SSH_ASKPASS", askpass.getRemote());
+                env.put("SSH_ASKPASS_REQUIRE", "force");
+            }
+
+            // as the next command is in quiet mode, we just add a message to the log
+            listener.getLogger().println("Running ssh-add (command line suppressed)");
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            long start = System.nanoTime();
+            int status = CommandTimeouts.join(launcher.launch().quiet(true).cmds(cmds).envs(env).stdout(baos).start(),
+                    launcher.getChannel(), CommandTimeouts.add(identities), identities.size(), listener);
+            String output = new String(baos.toByteArray(), StandardCharsets.UTF_8);
+            listener.getLogger().print(output);
+            if (status != 0) {
+                // the message only spares retrying keys surely added, should it change every key is retried
+                List<AgentIdentity> retry = new ArrayList<>();
+                for (int i = 0; i < identities.size(); i++) {
+                    if (!output.contains(keyFiles.get(i).getRemote() + " (")) {
+                        retry.add(identities.get(i));
+                    }
+                }
+                addEach(retry.isEmpty() ? identities : retry, ws, launcher, listener);
+                return;
+            }
+            CommandTimeouts.recordAdd(launcher.getChannel(), identities, start);
+        } finally {
+            if (askpass != null) {
+                askpass.delete();
+            }
+            for (FilePath keyFile : keyFiles) {
+                keyFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Adds the identities with one {@code ssh-add} each, reporting those which could not be loaded.
+     */
+    private void addEach(List<AgentIdentity> identities, FilePath ws, Launcher launcher, TaskListener listener)
+            throws IOException, InterruptedException {
+        List<String> failed = new ArrayList<>();
+        for (AgentIdentity identity : identities) {
+            try {
+                addIdentity(identity.getPrivateKey(), identity.getPassphrase(), identity.getComment(), ws, launcher, listener);
+            } catch (AbortException x) {
+                failed.add(identity.getComment());
+            }
+        }
+        if (!failed.isEmpty()) {
+            for (String comment : failed) {
+                listener.getLogger().println(Messages.SSHAgentBuildWrapper_UnableToReadKey(comment));
+            }
+            throw new AbortException("Failed to run ssh-add");
+        }
+    }
+
+    /**
+     * Streams each key to its own {@code ssh-add -}, so that no file has to be written.
+     *
+     * @return the identities which could not be loaded that way, to be retried with temporary files.
+     */
+    private List<AgentIdentity> addIdentitiesFromStdin(List<AgentIdentity> identities, Launcher launcher, TaskListener listener)
+            throws IOException, InterruptedException {
+        List<AgentIdentity> remaining = new ArrayList<>();
+        for (AgentIdentity identity : identities) {
+            if (identity.hasPassphrase() && askpassHelper == null) {
+                remaining.add(identity);
+                continue;
+            }
+            Map<String,String> env = new HashMap<>(agentEnv);
+            if (identity.getPassphrase() != null) {
+                env.put("SSH_PASSPHRASE", identity.getPassphrase());
+                env.put("DISPLAY", "bogus"); // just to force using SSH_ASKPASS
+                env.put("SSH_ASKPASS", askpassHelper);
+                env.put("SSH_ASKPASS_REQUIRE", "force");
+            }
+            String privateKey = identity.getPrivateKey();
+            if (!privateKey.endsWith("\n")) {
+                privateKey += "\n";
+            }
+
+            // as the next command is in quiet mode, we just add a message to the log
+            listener.getLogger().println("Running ssh-add (command line suppressed)");
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            Command command = CommandTimeouts.add(List.of(identity));
+            long start = System.nanoTime();
+            if (CommandTimeouts.join(launcher.launch().quiet(true).cmds("ssh-add", "-").envs(env)
+                    .stdin(new ByteArrayInputStream(privateKey.getBytes(StandardCharsets.UTF_8)))
+                    .stdout(baos).start(), launcher.getChannel(), command, 1, listener) != 0) {
+                remaining.add(identity);
+            } else {
+                CommandTimeouts.record(launcher.getChannel(), command, 1, start);
+                listener.getLogger().print(new String(baos.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+        return remaining;
+    }
+
+    @Override
     public Map<String, String> getEnv() {
         return agentEnv;
     }
@@ -111,17 +449,26 @@ public final class ExecRemoteAgent implements Serializable {
      *
      * @param listener for logging.
      */
+    @Override
     public void stop(Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
-        if (launcher.launch().cmds("ssh-agent", "-k").envs(agentEnv).stdout(listener)
-                .start().joinWithTimeout(1, TimeUnit.MINUTES, listener) != 0) {
+        VirtualChannel channel = directChannel(launcher);
+        long start = System.nanoTime();
+        if (channel != null) {
+            listener.getLogger().print(DirectCommands.call(channel, new DirectCommands.Stop(agentEnv, CommandTimeouts.timeoutMillis(channel, Command.STOP))));
+            CommandTimeouts.record(channel, Command.STOP, 1, start);
+            return;
+        }
+        if (CommandTimeouts.join(launcher.launch().cmds("ssh-agent", "-k").envs(agentEnv).stdout(listener).start(),
+                launcher.getChannel(), Command.STOP, 1, listener) != 0) {
             throw new AbortException("Failed to run ssh-agent -k");
         }
+        CommandTimeouts.record(launcher.getChannel(), Command.STOP, 1, start);
     }
-    
+
     /**
      * Parses ssh-agent output.
      */
-    private Map<String,String> parseAgentEnv(String agentOutput, TaskListener listener) throws IOException, InterruptedException {
+    static Map<String,String> parseAgentEnv(String agentOutput, TaskListener listener) throws IOException, InterruptedException {
         Map<String, String> env = new HashMap<>();
 
         // TODO better to just parse all env vars and keep them without picking out individual keys
@@ -140,7 +487,7 @@ public final class ExecRemoteAgent implements Serializable {
     /**
      * Parses a value from ssh-agent output.
      */
-    private String getAgentValue(String agentOutput, String envVar) {
+    private static String getAgentValue(String agentOutput, String envVar) {
         int pos = agentOutput.indexOf(envVar) + envVar.length() + 1; // +1 for '='
         int end = agentOutput.indexOf(';', pos);
         return agentOutput.substring(pos, end);
@@ -0,0 +1,334 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent.exec;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentCapabilities;
+import com.cloudbees.jenkins.plugins.sshagent.AgentIdentity;
+import com.cloudbees.jenkins.plugins.sshagent.RemoteAgent;
+import com.cloudbees.jenkins.plugins.sshagent.RemoteAgentFactory;
+import com.cloudbees.jenkins.plugins.sshagent.SSHAgentGlobalConfiguration;
+import com.cloudbees.jenkins.plugins.sshagent.SSHAgentNodeProperty;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+
+/**
+ * Starts an {@link ExecRemoteAgent}.
+ * <p>
+ * Ranked first as the native agent outlives both the remoting connection and a controller restart.
+ */
+@Extension(ordinal = 100)
+public class ExecRemoteAgentFactory extends RemoteAgentFactory {
+
+    private static final Logger LOGGER = Logger.getLogger(ExecRemoteAgentFactory.class.getName());
+
+    /**
+     * Whether to stream keys to {@code ssh-add -} on nodes supporting it, rather than writing them to the workspace.
+     */
+    static /* not final */ boolean STDIN = SystemProperties.getBoolean(ExecRemoteAgentFactory.class.getName() + ".stdin", true);
+
+    /**
+     * Whether to run {@code ssh-agent} and {@code ssh-add} straight from the node JVM when the launcher would anyway.
+     */
+    static /* not final */ boolean DIRECT = SystemProperties.getBoolean(ExecRemoteAgentFactory.class.getName() + ".direct", true);
+
+    /**
+     * {@inheritDoc}
+     */
+    @NonNull
+    @Override
+    public String getDisplayName() {
+        return Messages.ExecRemoteAgentFactory_DisplayName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isSupported(@NonNull Launcher launcher, @NonNull AgentCapabilities capabilities) {
+        // if we could not probe, the launcher is the only way to find out
+        return !capabilities.isProbed() || capabilities.isSshAgentAvailable();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @NonNull
+    @Override
+    public RemoteAgent start(@NonNull Launcher launcher, @NonNull TaskListener listener,
+                             @NonNull AgentCapabilities capabilities) throws IOException, InterruptedException {
+        return start(launcher, listener, capabilities, 0);
+    }
+
+    /**
+     * @param maxConcurrentLaunches bounds agents started at once on the node upon socket activation, if positive.
+     */
+    @NonNull
+    private RemoteAgent start(@NonNull Launcher launcher, @NonNull TaskListener listener,
+                              @NonNull AgentCapabilities capabilities, int maxConcurrentLaunches)
+            throws IOException, InterruptedException {
+        VirtualChannel channel = launcher.getChannel();
+        if (isActivated(capabilities) && channel != null) {
+            return new ActivatedRemoteAgent(channel, listener, capabilities.getAskpassHelper(),
+                    capabilities.getSocketDirectory(), maxConcurrentLaunches);
+        }
+        return newAgent(launcher, listener, capabilities);
+    }
+
+    /**
+     * Leases an agent from the {@link ExecAgentPool} when the node uses one.
+     */
+    @NonNull
+    @Override
+    public RemoteAgent start(@CheckForNull Computer computer, @NonNull Launcher launcher, @NonNull TaskListener listener,
+                             @NonNull AgentCapabilities capabilities) throws IOException, InterruptedException {
+        // agents can only be shared when started straight on the node, not e.g. inside a container
+        if (computer != null && capabilities.isProbed() && !isActivated(capabilities)) {
+            RemoteAgent leased = ExecAgentPool.get().lease(computer, launcher, listener, capabilities);
+            if (leased != null) {
+                return leased;
+            }
+        }
+        return start(launcher, listener, capabilities,
+                computer == null ? 0 : SSHAgentNodeProperty.of(computer.getNode()).getMaxConcurrentLaunches());
+    }
+
+    /**
+     * Starts the agent and loads the identities in a single round trip when the node allows, see {@link DirectCommands}.
+     * <p>
+     * With socket activation, the identities are only handed to the node, which loads them once the agent is started.
+     */
+    @NonNull
+    @Override
+    public RemoteAgent start(@CheckForNull Computer computer, @NonNull Launcher launcher, @NonNull TaskListener listener,
+                             @NonNull AgentCapabilities capabilities, @NonNull List<AgentIdentity> identities,
+                             @CheckForNull FilePath ws, @NonNull LongConsumer identityLoads) throws IOException, InterruptedException {
+        VirtualChannel channel = launcher.getChannel();
+        if (isDirect(capabilities) && channel != null && !isActivated(capabilities)
+                && (computer == null || SSHAgentNodeProperty.of(computer.getNode()).getPoolSize() == 0)) {
+            // a second attempt only starts the agent, the keys are then loaded into whichever is first up
+            ExecRemoteAgent agent = hedged(channel, launcher, listener, identities.size(),
+                    l -> ExecRemoteAgent.startDirect(channel, l, identities, capabilities.getAskpassHelper(),
+                            capabilities.getRuntimeDirectory()),
+                    l -> ExecRemoteAgent.startDirect(channel, l, List.of(), capabilities.getAskpassHelper(),
+                            capabilities.getRuntimeDirectory()),
+                    spawned -> {
+                        long start = System.nanoTime();
+                        spawned.addIdentities(identities, ws, launcher, listener);
+                        identityLoads.accept(System.nanoTime() - start);
+                    });
+            // as measured on the node, empty if the keys were loaded by the loader
+            for (long load : agent.getStartupLoads()) {
+                identityLoads.accept(load);
+            }
+            return agent;
+        }
+        return super.start(computer, launcher, listener, capabilities, identities, ws, identityLoads);
+    }
+
+    /**
+     * Whether processes can be run straight from the node JVM rather than through the launcher.
+     */
+    private static boolean isDirect(@NonNull AgentCapabilities capabilities) {
+        // probed means the launcher is not decorated
+        return DIRECT && STDIN && capabilities.isProbed() && capabilities.isSshAddStdinSupported()
+                && capabilities.getAskpassHelper() != null;
+    }
+
+    /**
+     * Whether {@code ssh-agent} should only be started once something connects to it, see {@link ActivatedRemoteAgent}.
+     */
+    private static boolean isActivated(@NonNull AgentCapabilities capabilities) {
+        return isDirect(capabilities) && capabilities.getSocketDirectory() != null
+                && SSHAgentGlobalConfiguration.get().isSocketActivation();
+    }
+
+    @NonNull
+    static ExecRemoteAgent newAgent(@NonNull Launcher launcher, @NonNull TaskListener listener,
+                                    @NonNull AgentCapabilities capabilities) throws IOException, InterruptedException {
+        VirtualChannel channel = launcher.getChannel();
+        Starter starter;
+        if (isDirect(capabilities) && channel != null) {
+            starter = l -> ExecRemoteAgent.startDirect(channel, l, List.of(), capabilities.getAskpassHelper(),
+                    capabilities.getRuntimeDirectory());
+        } else {
+            boolean stdin = STDIN && capabilities.isSshAddStdinSupported();
+            starter = l -> new ExecRemoteAgent(launcher, l, stdin, stdin ? capabilities.getAskpassHelper() : null,
+                    capabilities.isAskpassRequireSupported(), capabilities.getRuntimeDirectory());
+        }
+        return hedged(channel, launcher, listener, 0, starter, starter, null);
+    }
+
+    /**
+     * Starts an agent, starting a second one should the first take unusually long, and keeping whichever is first up.
+     * <p>
+     * Attempts log to a buffer of their own, so that only the output of the one kept, or of the last one failing, is
+     * passed on to the listener.
+     *
+     * @param keys    the number of keys loaded along by {@code starter}, which startup is expected to take longer with.
+     * @param starter makes the first attempt.
+     * @param spawner makes the second attempt, only starting the agent when {@code loader} is set.
+     * @param loader  loads the keys into the agent started by {@code spawner}, should it be kept.
+     * @see CommandTimeouts#hedgeDelayMillis
+     */
+    @NonNull
+    private static ExecRemoteAgent hedged(@CheckForNull VirtualChannel channel, @NonNull Launcher launcher,
+                                          @NonNull TaskListener listener, int keys, @NonNull Starter starter,
+                                          @NonNull Starter spawner, @CheckForNull Loader loader)
+            throws IOException, InterruptedException {
+        long delay = CommandTimeouts.hedgeDelayMillis(channel, keys);
+        if (delay < 0) {
+            return starter.start(listener);
+        }
+        CompletableFuture<Attempt> result = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger(1);
+        AtomicReference<ByteArrayOutputStream> failed = new AtomicReference<>();
+        Computer.threadPoolForRemoting.submit(() -> attempt(starter, false, result, running, failed, launcher));
+        Attempt kept;
+        try {
+            try {
+                kept = result.get(delay, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException x) {
+                listener.getLogger().println(Messages.ExecRemoteAgentFactory_Hedging());
+                running.incrementAndGet();
+                Computer.threadPoolForRemoting.submit(() -> attempt(spawner, loader != null, result, running, failed, launcher));
+                kept = result.get();
+            }
+        } catch (ExecutionException x) {
+            ByteArrayOutputStream log = failed.get();
+            if (log != null) {
+                listener.getLogger().write(log.toByteArray(), 0, log.size());
+            }
+            throw unwrap(x);
+        } catch (InterruptedException x) {
+            // attempts completing later will find the result cancelled and stop their agent
+            result.cancel(false);
+            throw x;
+        }
+        listener.getLogger().write(kept.log.toByteArray(), 0, kept.log.size());
+        if (kept.spawned) {
+            try {
+                loader.load(kept.agent);
+            } catch (IOException | InterruptedException | RuntimeException x) {
+                try {
+                    kept.agent.stop(launcher, listener);
+                } catch (IOException | RuntimeException x2) {
+                    x.addSuppressed(x2);
+                }
+                throw x;
+            }
+        }
+        return kept.agent;
+    }
+
+    /**
+     * Makes one attempt at starting an agent, stopping it if another attempt was faster.
+     *
+     * @param spawned whether the agent is only started, still to be loaded with the keys.
+     * @param running the number of attempts not completed yet, the last one to fail failing the result.
+     * @param failed  receives the output of the last attempt to fail.
+     */
+    private static void attempt(Starter starter, boolean spawned, CompletableFuture<Attempt> result, AtomicInteger running,
+                                AtomicReference<ByteArrayOutputStream> failed, Launcher launcher) {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        ExecRemoteAgent agent;
+        try {
+            agent = starter.start(new StreamTaskListener(log, StandardCharsets.UTF_8));
+        } catch (IOException | InterruptedException | RuntimeException x) {
+            failed.set(log);
+            if (running.decrementAndGet() == 0) {
+                result.completeExceptionally(x);
+            }
+            return;
+        }
+        if (!result.complete(new Attempt(agent, log, spawned))) {
+            try {
+                agent.stop(launcher, TaskListener.NULL);
+            } catch (IOException | InterruptedException | RuntimeException x) {
+                LOGGER.log(Level.WARNING, "Could not stop redundant agent", x);
+            }
+        }
+    }
+
+    private static final class Attempt {
+        final ExecRemoteAgent agent;
+        final ByteArrayOutputStream log;
+        final boolean spawned;
+
+        Attempt(ExecRemoteAgent agent, ByteArrayOutputStream log, boolean spawned) {
+            this.agent = agent;
+            this.log = log;
+            this.spawned = spawned;
+        }
+    }
+
+    private static IOException unwrap(ExecutionException x) {
+        Throwable cause = x.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * Starts an agent, possibly more than once.
+     */
+    @FunctionalInterface
+    private interface Starter {
+        ExecRemoteAgent start(TaskListener listener) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Loads keys into an agent.
+     */
+    @FunctionalInterface
+    private interface Loader {
+        void load(ExecRemoteAgent agent) throws IOException, InterruptedException;
+    }
+}
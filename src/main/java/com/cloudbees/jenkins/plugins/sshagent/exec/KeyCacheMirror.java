@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent.exec;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentIdentity;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.remoting.VirtualChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import jenkins.util.SystemProperties;
+
+/**
+ * Tracks on the controller which identities the {@link NodeKeyCache} of each node is expected to hold, so that they are
+ * only sent by digest.
+ * <p>
+ * Being wrong is harmless: the node reports digests it does not know about, and they are sent again in full.
+ */
+final class KeyCacheMirror {
+
+    /**
+     * Minutes for which nodes keep key material, {@code 0} to always send it.
+     */
+    static /* not final */ int TTL = SystemProperties.getInteger(KeyCacheMirror.class.getName() + ".ttl", 30);
+
+    /**
+     * Maximum number of identities each node keeps.
+     */
+    static /* not final */ int MAX_ENTRIES = SystemProperties.getInteger(KeyCacheMirror.class.getName() + ".maxEntries", 256);
+
+    /** Digests expected on each node, with their expiry; entries go away with the channel. */
+    private static final Map<VirtualChannel, Map<String, Long>> EXPECTED = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private KeyCacheMirror() {
+    }
+
+    static long ttlMillis() {
+        return TimeUnit.MINUTES.toMillis(Math.max(0, TTL));
+    }
+
+    /**
+     * Gets what to send for some identities.
+     *
+     * @param channel the channel to the node.
+     * @param identities the identities.
+     * @param full whether to send all identities in full, e.g. after the node reported some as missing.
+     * @return the references, in order.
+     */
+    @NonNull
+    static List<NodeKeyCache.KeyRef> refs(@NonNull VirtualChannel channel, @NonNull List<AgentIdentity> identities, boolean full) {
+        long now = System.currentTimeMillis();
+        List<NodeKeyCache.KeyRef> result = new ArrayList<>();
+        synchronized (EXPECTED) {
+            Map<String, Long> expected = EXPECTED.computeIfAbsent(channel, k -> new LinkedHashMap<>());
+            expected.values().removeIf(expires -> expires <= now);
+            for (AgentIdentity identity : identities) {
+                String digest = identity.getDigest();
+                // leave a margin so that we do not rely on entries about to expire on the node
+                boolean cached = !full && expected.containsKey(digest) && expected.get(digest) > now + TimeUnit.MINUTES.toMillis(1);
+                result.add(new NodeKeyCache.KeyRef(digest, identity.getComment(), cached ? null : identity));
+                if (!cached && TTL > 0) {
+                    expected.put(digest, now + ttlMillis());
+                }
+            }
+            while (expected.size() > MAX_ENTRIES) {
+                expected.remove(expected.keySet().iterator().next());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Forgets about identities the node reported as missing.
+     */
+    static void missing(@NonNull VirtualChannel channel, @NonNull Collection<String> digests) {
+        synchronized (EXPECTED) {
+            Map<String, Long> expected = EXPECTED.get(channel);
+            if (expected != null) {
+                expected.keySet().removeAll(digests);
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent.exec;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentIdentity;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.remoting.Channel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Keeps key material in the node JVM, so that the controller can refer to keys loaded recently by their digest rather
+ * than sending them again.
+ * <p>
+ * Entries are encrypted with a key which never leaves the JVM, expire, are limited in number, and are all dropped as
+ * soon as the connection to the controller closes. As entries are keyed by the digest of the key and passphrase, a
+ * changed credential is simply a miss.
+ */
+final class NodeKeyCache {
+
+    private static final Logger LOGGER = Logger.getLogger(NodeKeyCache.class.getName());
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /** Guarded by the class, least recently used first. */
+    private static final LinkedHashMap<String, Sealed> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Channels we purge the cache on closing of. */
+    private static final Set<Channel> WATCHED = Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<>()));
+
+    private static SecretKey key;
+
+    private NodeKeyCache() {
+    }
+
+    /**
+     * An identity as sent by the controller, either in full or as a digest it expects to be cached.
+     */
+    static final class KeyRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @NonNull
+        final String digest;
+
+        @NonNull
+        final String comment;
+
+        @CheckForNull
+        final AgentIdentity identity;
+
+        KeyRef(@NonNull String digest, @NonNull String comment, @CheckForNull AgentIdentity identity) {
+            this.digest = digest;
+            this.comment = comment;
+            this.identity = identity;
+        }
+    }
+
+    /**
+     * Resolves identities on the node, caching those sent in full.
+     *
+     * @param refs       the identities.
+     * @param ttl        how long to keep identities, in milliseconds; {@code 0} not to cache them.
+     * @param maxEntries how many identities to keep at most.
+     * @param missing    receives the digests which were expected to be cached but are not.
+     * @return the resolved identities, in order, if nothing is missing.
+     */
+    static List<AgentIdentity> resolve(List<KeyRef> refs, long ttl, int maxEntries, List<String> missing) throws IOException {
+        List<AgentIdentity> result = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (NodeKeyCache.class) {
+            watch();
+            for (KeyRef ref : refs) {
+                AgentIdentity identity = ref.identity;
+                if (identity == null) {
+                    Sealed sealed = ENTRIES.get(ref.digest);
+                    if (sealed != null && sealed.expires > now) {
+                        identity = sealed.open(ref.comment);
+                    } else {
+                        ENTRIES.remove(ref.digest);
+                        missing.add(ref.digest);
+                        continue;
+                    }
+                } else if (ttl > 0) {
+                    ENTRIES.put(ref.digest, Sealed.seal(identity, now + ttl));
+                }
+                result.add(identity);
+            }
+            while (ENTRIES.size() > maxEntries) {
+                ENTRIES.remove(ENTRIES.keySet().iterator().next());
+            }
+        }
+        return result;
+    }
+
+    static synchronized void purge() {
+        ENTRIES.clear();
+    }
+
+    private static void watch() {
+        Channel channel = Channel.current();
+        if (channel != null && WATCHED.add(channel)) {
+            channel.addListener(new Channel.Listener() {
+                @Override
+                public void onClosed(Channel channel, IOException cause) {
+                    LOGGER.log(Level.FINE, "Purging cached keys as {0} closed", channel);
+                    purge();
+                }
+            });
+        }
+    }
+
+    private static synchronized SecretKey key() throws GeneralSecurityException {
+        if (key == null) {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(256, RANDOM);
+            key = generator.generateKey();
+        }
+        return key;
+    }
+
+    private static final class Sealed {
+        final byte[] iv;
+        final byte[] data;
+        final long expires;
+
+        private Sealed(byte[] iv, byte[] data, long expires) {
+            this.iv = iv;
+            this.data = data;
+            this.expires = expires;
+        }
+
+        static Sealed seal(AgentIdentity identity, long expires) throws IOException {
+            ByteArrayOutputStream plain = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(plain)) {
+                writeString(out, identity.getPrivateKey());
+                out.writeBoolean(identity.getPassphrase() != null);
+                if (identity.getPassphrase() != null) {
+                    writeString(out, identity.getPassphrase());
+                }
+            }
+            byte[] iv = new byte[12];
+            RANDOM.nextBytes(iv);
+            try {
+                Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                cipher.init(Cipher.ENCRYPT_MODE, key(), new GCMParameterSpec(128, iv));
+                return new Sealed(iv, cipher.doFinal(plain.toByteArray()), expires);
+            } catch (GeneralSecurityException x) {
+                throw new IOException(x);
+            }
+        }
+
+        AgentIdentity open(String comment) throws IOException {
+            byte[] plain;
+            try {
+                Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                cipher.init(Cipher.DECRYPT_MODE, key(), new GCMParameterSpec(128, iv));
+                plain = cipher.doFinal(data);
+            } catch (GeneralSecurityException x) {
+                throw new IOException(x);
+            }
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain))) {
+                String privateKey = readString(in);
+                String passphrase = in.readBoolean() ? readString(in) : null;
+                return new AgentIdentity(privateKey, passphrase, comment);
+            }
+        }
+
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent.exec;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentIdentity;
+import com.cloudbees.jenkins.plugins.sshagent.RemoteAgent;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link ExecRemoteAgent} leased from an {@link ExecAgentPool}, which goes back to the pool when stopped.
+ */
+public final class PooledRemoteAgent implements RemoteAgent {
+    private static final long serialVersionUID = 1L;
+
+    @NonNull
+    private final ExecRemoteAgent agent;
+
+    /** Name of the node running the agent. */
+    @NonNull
+    private final String node;
+
+    PooledRemoteAgent(@NonNull ExecRemoteAgent agent, @NonNull String node) {
+        this.agent = agent;
+        this.node = node;
+    }
+
+    @Override
+    public void addIdentity(String privateKey, String passphrase, String comment, FilePath ws, Launcher launcher,
+                            TaskListener listener) throws IOException, InterruptedException {
+        agent.addIdentity(privateKey, passphrase, comment, ws, launcher, listener);
+    }
+
+    @Override
+    public void addIdentities(List<AgentIdentity> identities, FilePath ws, Launcher launcher, TaskListener listener)
+            throws IOException, InterruptedException {
+        agent.addIdentities(identities, ws, launcher, listener);
+    }
+
+    @Override
+    public Map<String, String> getEnv() {
+        return agent.getEnv();
+    }
+
+    /**
+     * Stops the agent, which is never handed to another build, and has the pool start a fresh one instead.
+     */
+    @Override
+    public void stop(Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
+        ExecAgentPool.get().release(agent, node, launcher, listener);
+    }
+}
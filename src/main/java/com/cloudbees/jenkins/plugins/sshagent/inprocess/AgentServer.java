@@ -0,0 +1,399 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent.inprocess;
+
+import com.cloudbees.jenkins.plugins.sshagent.KeyFingerprints;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.remoting.Channel;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.sshd.agent.SshAgent;
+import org.apache.sshd.agent.common.AbstractAgentClient;
+import org.apache.sshd.agent.local.AgentImpl;
+import org.apache.sshd.common.NamedResource;
+import org.apache.sshd.common.config.keys.FilePasswordProvider;
+import org.apache.sshd.common.config.keys.KeyUtils;
+import org.apache.sshd.common.session.SessionContext;
+import org.apache.sshd.common.util.buffer.Buffer;
+import org.apache.sshd.common.util.buffer.ByteArrayBuffer;
+import org.apache.sshd.common.util.security.SecurityUtils;
+
+/**
+ * Node side of {@link InProcessRemoteAgent}: serves the OpenSSH agent protocol from a Unix domain socket
+ * inside the JVM it runs in.
+ */
+final class AgentServer implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(AgentServer.class.getName());
+
+    /** Servers running in this JVM, keyed by {@link InProcessRemoteAgent} id. */
+    private static final Map<String, AgentServer> SERVERS = new ConcurrentHashMap<>();
+
+    private final Path directory;
+
+    private final Path socket;
+
+    private final ServerSocketChannel server;
+
+    private final Identities agent = new Identities();
+
+    private AgentServer(Path directory, Path socket, ServerSocketChannel server) {
+        this.directory = directory;
+        this.socket = socket;
+        this.server = server;
+    }
+
+    /**
+     * Binds a new socket, starts serving it and registers the server under the given id.
+     *
+     * @param parent where to create the socket, or {@code null} for the default temporary directory.
+     */
+    static AgentServer start(String id, @CheckForNull String parent) throws IOException {
+        Path base = parent == null ? Path.of(System.getProperty("java.io.tmpdir")) : Path.of(parent);
+        Path directory;
+        try {
+            directory = Files.createTempDirectory(base, "ssh-", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } catch (UnsupportedOperationException x) {
+            directory = Files.createTempDirectory(base, "ssh-");
+        }
+        // same layout as OpenSSH uses so that tooling expecting ssh-agent sockets is not surprised
+        Path socket = directory.resolve("agent." + ProcessHandle.current().pid());
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(socket));
+        } catch (IOException x) {
+            server.close();
+            Files.deleteIfExists(directory);
+            throw x;
+        }
+        AgentServer result = new AgentServer(directory, socket, server);
+        SERVERS.put(id, result);
+        Channel channel = Channel.current();
+        if (channel != null) {
+            // the controller cannot reach us any more once the channel is gone, so nobody would ever stop us
+            channel.addListener(new Channel.Listener() {
+                @Override
+                public void onClosed(Channel channel, IOException cause) {
+                    remove(id);
+                }
+            });
+        }
+        Thread acceptor = new Thread(result::accept, "ssh-agent acceptor for " + socket);
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return result;
+    }
+
+    /**
+     * Looks up a running server.
+     *
+     * @return the server or {@code null} if it is not (or no longer) running in this JVM.
+     */
+    static AgentServer get(String id) {
+        return SERVERS.get(id);
+    }
+
+    /**
+     * Stops and unregisters a server.
+     *
+     * @return {@code true} if the server was running.
+     */
+    static boolean remove(String id) {
+        AgentServer server = SERVERS.remove(id);
+        if (server == null) {
+            return false;
+        }
+        try {
+            server.close();
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "Failed to clean up " + server.socket, x);
+        }
+        return true;
+    }
+
+    Path getSocket() {
+        return socket;
+    }
+
+    /**
+     * Adds every key pair a private key contains to the agent.
+     * <p>
+     * In lazy mode, an OpenSSH key is only advertised by its public key, and decrypted by the first request to sign
+     * with it. Other formats do not tell their public key without decryption, so they are always loaded right away.
+     *
+     * @param lazy whether decryption may be deferred.
+     * @return the number of keys added.
+     */
+    int addIdentity(String privateKey, String passphrase, String comment, boolean lazy) throws IOException {
+        if (lazy) {
+            byte[] publicKey = KeyFingerprints.openSSHPublicKey(privateKey);
+            if (publicKey != null) {
+                PublicKey key;
+                try {
+                    key = new ByteArrayBuffer(publicKey).getRawPublicKey();
+                } catch (RuntimeException x) {
+                    throw new IOException("Unable to read public key of " + comment, x);
+                }
+                agent.addPending(key, privateKey, passphrase, comment);
+                return 1;
+            }
+        }
+        int added = 0;
+        for (KeyPair keyPair : decrypt(privateKey, passphrase, comment)) {
+            agent.addIdentity(keyPair, comment);
+            added++;
+        }
+        if (added == 0) {
+            throw new IOException("No private key found in " + comment);
+        }
+        return added;
+    }
+
+    /**
+     * Comments of the identities nothing was signed with so far.
+     */
+    List<String> getUnused() {
+        return agent.getUnused();
+    }
+
+    private static Iterable<KeyPair> decrypt(String privateKey, String passphrase, String comment) throws IOException {
+        try {
+            Iterable<KeyPair> keyPairs = SecurityUtils.loadKeyPairIdentities(null, NamedResource.ofName(comment),
+                    new ByteArrayInputStream(privateKey.getBytes(StandardCharsets.UTF_8)),
+                    passphrase == null ? null : FilePasswordProvider.of(passphrase));
+            return keyPairs == null ? List.of() : keyPairs;
+        } catch (GeneralSecurityException x) {
+            throw new IOException("Unable to read key " + comment, x);
+        }
+    }
+
+    private void accept() {
+        try {
+            while (server.isOpen()) {
+                SocketChannel client = server.accept();
+                Thread handler = new Thread(() -> serve(client), "ssh-agent connection on " + socket);
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } catch (ClosedChannelException x) {
+            // stopped
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "ssh-agent on " + socket + " stopped accepting connections", x);
+        }
+    }
+
+    private void serve(SocketChannel client) {
+        AbstractAgentClient protocol = new AbstractAgentClient(agent) {
+            @Override
+            protected void reply(Buffer buf) throws IOException {
+                ByteBuffer out = ByteBuffer.wrap(buf.array(), buf.rpos(), buf.available());
+                while (out.hasRemaining()) {
+                    client.write(out);
+                }
+            }
+        };
+        try (SocketChannel c = client) {
+            ByteBuffer in = ByteBuffer.allocate(8192);
+            while (c.read(in) >= 0) {
+                in.flip();
+                protocol.messageReceived(new ByteArrayBuffer(in.array(), 0, in.limit()));
+                in.clear();
+            }
+        } catch (ClosedChannelException x) {
+            // agent stopped while the client was connected
+        } catch (IOException x) {
+            LOGGER.log(Level.FINE, "ssh-agent connection on " + socket + " failed", x);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            server.close();
+            agent.close();
+        } finally {
+            Files.deleteIfExists(socket);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * Keeps the identities in the order they were added, whether already decrypted or not, and tracks their use.
+     */
+    private static final class Identities implements SshAgent {
+
+        /** Holds the decrypted key pairs and does the actual signing. */
+        private final AgentImpl loaded = new AgentImpl();
+
+        private final List<Identity> identities = new CopyOnWriteArrayList<>();
+
+        void addPending(PublicKey key, String privateKey, String passphrase, String comment) {
+            identities.add(new Identity(key, comment, privateKey, passphrase));
+        }
+
+        List<String> getUnused() {
+            List<String> result = new ArrayList<>();
+            for (Identity identity : identities) {
+                if (!identity.used) {
+                    result.add(identity.comment);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public Iterable<? extends Map.Entry<PublicKey, String>> getIdentities() {
+            List<Map.Entry<PublicKey, String>> result = new ArrayList<>();
+            for (Identity identity : identities) {
+                result.add(new AbstractMap.SimpleImmutableEntry<>(identity.publicKey, identity.comment));
+            }
+            return result;
+        }
+
+        @Override
+        public Map.Entry<String, byte[]> sign(SessionContext session, PublicKey key, String algo, byte[] data) throws IOException {
+            Identity identity = find(key);
+            if (identity != null) {
+                try {
+                    identity.load(loaded);
+                } catch (IOException x) {
+                    // the client only gets a bare failure, so leave some trace on the node
+                    LOGGER.log(Level.WARNING, "Could not decrypt " + identity.comment, x);
+                    throw x;
+                }
+                identity.used = true;
+            }
+            return loaded.sign(session, key, algo, data);
+        }
+
+        @Override
+        public void addIdentity(KeyPair key, String comment) throws IOException {
+            loaded.addIdentity(key, comment);
+            identities.add(new Identity(key.getPublic(), comment, null, null));
+        }
+
+        @Override
+        public void removeIdentity(PublicKey key) throws IOException {
+            Identity identity = find(key);
+            if (identity == null) {
+                throw new IOException("Key not found");
+            }
+            identities.remove(identity);
+            if (identity.isLoaded()) {
+                loaded.removeIdentity(key);
+            }
+        }
+
+        @Override
+        public void removeAllIdentities() throws IOException {
+            identities.clear();
+            loaded.removeAllIdentities();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return loaded.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            identities.clear();
+            loaded.close();
+        }
+
+        private Identity find(PublicKey key) {
+            for (Identity identity : identities) {
+                if (KeyUtils.compareKeys(identity.publicKey, key)) {
+                    return identity;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class Identity {
+
+        final PublicKey publicKey;
+
+        final String comment;
+
+        /** The encrypted key, until {@link #load} decrypts it. */
+        private String privateKey;
+
+        private String passphrase;
+
+        volatile boolean used;
+
+        Identity(PublicKey publicKey, String comment, String privateKey, String passphrase) {
+            this.publicKey = publicKey;
+            this.comment = comment;
+            this.privateKey = privateKey;
+            this.passphrase = passphrase;
+        }
+
+        synchronized boolean isLoaded() {
+            return privateKey == null;
+        }
+
+        /**
+         * Decrypts the key into the agent, unless done already.
+         */
+        synchronized void load(SshAgent agent) throws IOException {
+            if (privateKey == null) {
+                return;
+            }
+            for (KeyPair keyPair : decrypt(privateKey, passphrase, comment)) {
+                if (KeyUtils.compareKeys(publicKey, keyPair.getPublic())) {
+                    agent.addIdentity(keyPair, comment);
+                    privateKey = null;
+                    passphrase = null;
+                    return;
+                }
+            }
+            throw new IOException("Private key of " + comment + " does not match its public key");
+        }
+    }
+}
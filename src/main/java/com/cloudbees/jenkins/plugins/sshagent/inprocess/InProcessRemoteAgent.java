@@ -0,0 +1,242 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent.inprocess;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentIdentity;
+import com.cloudbees.jenkins.plugins.sshagent.Messages;
+import com.cloudbees.jenkins.plugins.sshagent.RemoteAgent;
+import com.cloudbees.jenkins.plugins.sshagent.SSHAgentGlobalConfiguration;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Serves the SSH agent protocol from within the remoting JVM of the node, without spawning any process.
+ * <p>
+ * Only {@code SSH_AUTH_SOCK} is exported: there is no separate agent process, and handing out the PID of the
+ * remoting JVM as {@code SSH_AGENT_PID} would let {@code ssh-agent -k} kill the node connection.
+ */
+public final class InProcessRemoteAgent implements RemoteAgent {
+    private static final long serialVersionUID = 1L;
+
+    private static final String AuthSocketVar = "SSH_AUTH_SOCK";
+
+    /** Identifies the {@link AgentServer} on the node. */
+    private final String id;
+
+    /** Agent environment exported to the build. */
+    private final Map<String, String> agentEnv;
+
+    /** Whether some identities were added without being decrypted, see {@link SSHAgentGlobalConfiguration#isLazyIdentities}. */
+    private boolean lazy;
+
+    public InProcessRemoteAgent(Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
+        this(launcher, listener, null);
+    }
+
+    /**
+     * Starts an agent.
+     *
+     * @param directory where to create the socket on the node, or {@code null} for the default temporary directory.
+     */
+    public InProcessRemoteAgent(Launcher launcher, TaskListener listener, @CheckForNull String directory)
+            throws IOException, InterruptedException {
+        id = UUID.randomUUID().toString();
+        String socket = channel(launcher).call(new Start(id, directory));
+        agentEnv = new HashMap<>();
+        agentEnv.put(AuthSocketVar, socket);
+        listener.getLogger().println(AuthSocketVar + "=" + socket);
+    }
+
+    /**
+     * Adds the provided identity to the agent.
+     *
+     * @param privateKey the private key.
+     * @param passphrase the passphrase or {@code null}.
+     * @param comment    the comment to give to the key.
+     * @param listener   for logging.
+     */
+    @Override
+    public void addIdentity(String privateKey, final String passphrase, String comment, FilePath ws, Launcher launcher, TaskListener listener)
+            throws IOException, InterruptedException {
+        addIdentities(Collections.singletonList(new AgentIdentity(privateKey, passphrase, comment)), ws, launcher, listener);
+    }
+
+    /**
+     * Adds all the identities in a single call to the node.
+     */
+    @Override
+    public void addIdentities(List<AgentIdentity> identities, FilePath ws, Launcher launcher, TaskListener listener)
+            throws IOException, InterruptedException {
+        if (identities.isEmpty()) {
+            return;
+        }
+        boolean lazyIdentities = SSHAgentGlobalConfiguration.get().isLazyIdentities();
+        List<String> failures = channel(launcher).call(new AddIdentities(id, identities, lazyIdentities));
+        lazy |= lazyIdentities;
+        if (!failures.isEmpty()) {
+            for (String failure : failures) {
+                listener.getLogger().println(Messages.SSHAgentBuildWrapper_UnableToReadKey(failure));
+            }
+            throw new AbortException("Failed to add some identities");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only tracked in lazy mode, where unused keys are the ones never decrypted.
+     */
+    @Override
+    public List<String> getUnusedIdentities(Launcher launcher) throws IOException, InterruptedException {
+        return lazy ? channel(launcher).call(new Unused(id)) : null;
+    }
+
+    @Override
+    public Map<String, String> getEnv() {
+        return agentEnv;
+    }
+
+    /**
+     * Stops the agent.
+     *
+     * @param listener for logging.
+     */
+    @Override
+    public void stop(Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
+        if (!channel(launcher).call(new Stop(id))) {
+            // e.g. the node reconnected, which already took the agent down with the old channel
+            listener.getLogger().println("[ssh-agent] Agent on " + agentEnv.get(AuthSocketVar) + " was no longer running");
+        }
+    }
+
+    private static VirtualChannel channel(Launcher launcher) throws IOException {
+        VirtualChannel channel = launcher.getChannel();
+        if (channel == null) {
+            throw new IOException("No channel to the node");
+        }
+        return channel;
+    }
+
+    private static final class Start extends MasterToSlaveCallable<String, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        @CheckForNull
+        private final String directory;
+
+        Start(String id, @CheckForNull String directory) {
+            this.id = id;
+            this.directory = directory;
+        }
+
+        @Override
+        public String call() throws IOException {
+            return AgentServer.start(id, directory).getSocket().toString();
+        }
+    }
+
+    private static final class AddIdentities extends MasterToSlaveCallable<List<String>, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        private final List<AgentIdentity> identities;
+
+        private final boolean lazy;
+
+        AddIdentities(String id, List<AgentIdentity> identities, boolean lazy) {
+            this.id = id;
+            this.identities = new ArrayList<>(identities);
+            this.lazy = lazy;
+        }
+
+        /**
+         * @return descriptions of the identities which could not be added.
+         */
+        @Override
+        public List<String> call() throws IOException {
+            AgentServer server = AgentServer.get(id);
+            if (server == null) {
+                throw new AbortException("ssh-agent is not running");
+            }
+            List<String> failures = new ArrayList<>();
+            for (AgentIdentity identity : identities) {
+                try {
+                    server.addIdentity(identity.getPrivateKey(), identity.getPassphrase(), identity.getComment(), lazy);
+                } catch (IOException x) {
+                    failures.add(identity.getComment() + ": " + x.getMessage());
+                }
+            }
+            return failures;
+        }
+    }
+
+    private static final class Stop extends MasterToSlaveCallable<Boolean, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        Stop(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public Boolean call() throws IOException {
+            return AgentServer.remove(id);
+        }
+    }
+
+    private static final class Unused extends MasterToSlaveCallable<List<String>, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        Unused(String id) {
+            this.id = id;
+        }
+
+        /**
+         * @return comments of the identities never used, or {@code null} if the agent is gone.
+         */
+        @Override
+        public List<String> call() throws IOException {
+            AgentServer server = AgentServer.get(id);
+            return server == null ? null : server.getUnused();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent.inprocess;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentCapabilities;
+import com.cloudbees.jenkins.plugins.sshagent.RemoteAgent;
+import com.cloudbees.jenkins.plugins.sshagent.RemoteAgentFactory;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import java.io.IOException;
+
+/**
+ * Starts an {@link InProcessRemoteAgent}.
+ * <p>
+ * Ranked after the native agent by default, as the agent goes away with the remoting connection. It is the fastest
+ * choice though, and can be preferred with
+ * {@code -Dcom.cloudbees.jenkins.plugins.sshagent.RemoteAgentFactory.preferred=com.cloudbees.jenkins.plugins.sshagent.inprocess.InProcessRemoteAgentFactory}.
+ */
+@Extension(ordinal = 50)
+public class InProcessRemoteAgentFactory extends RemoteAgentFactory {
+
+    /**
+     * {@inheritDoc}
+     */
+    @NonNull
+    @Override
+    public String getDisplayName() {
+        return Messages.InProcessRemoteAgentFactory_DisplayName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isLazyIdentitiesSupported() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isSupported(@NonNull Launcher launcher, @NonNull AgentCapabilities capabilities) {
+        return capabilities.isProbed() && !capabilities.isWindows() && capabilities.getSocketDirectory() != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @NonNull
+    @Override
+    public RemoteAgent start(@NonNull Launcher launcher, @NonNull TaskListener listener,
+                             @NonNull AgentCapabilities capabilities) throws IOException, InterruptedException {
+        return new InProcessRemoteAgent(launcher, listener, capabilities.getSocketDirectory());
+    }
+}
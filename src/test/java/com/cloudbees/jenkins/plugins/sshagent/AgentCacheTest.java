@@ -0,0 +1,102 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.model.FreeStyleProject;
+import hudson.model.TaskListener;
+import hudson.slaves.DumbSlave;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assume.assumeFalse;
+
+public class AgentCacheTest extends SSHAgentBase {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @After
+    public void evict() throws Exception {
+        // stops all cached agents
+        SystemCredentialsProvider.getInstance().save();
+    }
+
+    @Test
+    public void agentsAreOnlySharedWithinAJob() throws Exception {
+        assumeFalse(Functions.isWindows());
+        SSHAgentGlobalConfiguration.get().setReuseAgents(true);
+        DumbSlave node = r.createOnlineSlave();
+        TaskListener listener = StreamTaskListener.fromStdout();
+        Launcher launcher = node.createLauncher(listener);
+        FreeStyleProject a = r.createFreeStyleProject("a");
+        FreeStyleProject b = r.createFreeStyleProject("b");
+        List<AgentIdentity> identities = List.of(new AgentIdentity(KEY_WITHOUT_PASSWORD_AND_NO_NEWLINE, null, "no passphrase"));
+
+        RemoteAgent first = AgentCache.acquire(node.toComputer(), launcher, listener, identities, null, r.buildAndAssertSuccess(a));
+        String socket = first.getEnv().get("SSH_AUTH_SOCK");
+        first.stop(launcher, listener);
+
+        RemoteAgent same = AgentCache.acquire(node.toComputer(), launcher, listener, identities, null, r.buildAndAssertSuccess(a));
+        RemoteAgent other = AgentCache.acquire(node.toComputer(), launcher, listener, identities, null, r.buildAndAssertSuccess(b));
+        try {
+            assertThat(same.getEnv().get("SSH_AUTH_SOCK"), is(socket));
+            assertThat(other.getEnv().get("SSH_AUTH_SOCK"), not(socket));
+        } finally {
+            same.stop(launcher, listener);
+            other.stop(launcher, listener);
+        }
+    }
+
+    @Test
+    public void addingIdentitiesDetachesFromTheCache() throws Exception {
+        assumeFalse(Functions.isWindows());
+        SSHAgentGlobalConfiguration.get().setReuseAgents(true);
+        DumbSlave node = r.createOnlineSlave();
+        TaskListener listener = StreamTaskListener.fromStdout();
+        Launcher launcher = node.createLauncher(listener);
+        FreeStyleProject p = r.createFreeStyleProject();
+        List<AgentIdentity> identities = List.of(new AgentIdentity(KEY_WITHOUT_PASSWORD_AND_NO_NEWLINE, null, "no passphrase"));
+
+        RemoteAgent agent = AgentCache.acquire(node.toComputer(), launcher, listener, identities, null, r.buildAndAssertSuccess(p));
+        assertThat(agent, instanceOf(SharedRemoteAgent.class));
+        String socket = agent.getEnv().get("SSH_AUTH_SOCK");
+        try {
+            agent.addIdentity(getPrivateKey(), "cloudbees", "with passphrase", null, launcher, listener);
+            assertThat(agent.getEnv().get("SSH_AUTH_SOCK"), not(socket));
+            String listed = list(launcher, agent);
+            assertThat(listed, containsString(KEY_WITHOUT_PASSWORD_FINGERPRINT));
+            assertThat(listed, containsString(KEY_FINGERPRINT));
+        } finally {
+            agent.stop(launcher, listener);
+        }
+
+        // the shared agent was left as is
+        RemoteAgent shared = AgentCache.acquire(node.toComputer(), launcher, listener, identities, null, r.buildAndAssertSuccess(p));
+        try {
+            assertThat(shared.getEnv().get("SSH_AUTH_SOCK"), is(socket));
+            assertThat(list(launcher, shared), not(containsString(KEY_FINGERPRINT)));
+        } finally {
+            shared.stop(launcher, listener);
+        }
+    }
+
+    private static String list(Launcher launcher, RemoteAgent agent) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(launcher.launch().cmds("ssh-add", "-l").envs(agent.getEnv()).stdout(out).start()
+                .joinWithTimeout(1, TimeUnit.MINUTES, TaskListener.NULL), is(0));
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
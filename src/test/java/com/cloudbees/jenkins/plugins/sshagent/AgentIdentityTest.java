@@ -0,0 +1,62 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
+import com.cloudbees.jenkins.plugins.sshcredentials.impl.BasicSSHUserPrivateKey;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+
+public class AgentIdentityTest extends SSHAgentBase {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Test
+    public void sameKeyInSeveralCredentialsIsLoadedOnce() throws Exception {
+        SSHUserPrivateKey first = new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, "first", "cloudbees",
+                new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey()), "cloudbees", "first");
+        SSHUserPrivateKey second = new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, "second", "cloudbees",
+                new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey2()), "*  .*", "second");
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        TaskListener listener = new StreamTaskListener(log, StandardCharsets.UTF_8);
+        List<AgentIdentity> identities = AgentIdentity.of(List.of(first, second), listener);
+        assertThat(identities, hasSize(1));
+        assertThat(identities.get(0).getPassphrase(), is("cloudbees"));
+        assertThat(log.toString(StandardCharsets.UTF_8), containsString("first, second"));
+    }
+
+    @Test
+    public void encryptedKeysAreNotDecryptedWithLazyIdentities() throws Exception {
+        SSHAgentGlobalConfiguration.get().setLazyIdentities(true);
+        SSHUserPrivateKey first = new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, "first", "cloudbees",
+                new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey()), "cloudbees", "first");
+        SSHUserPrivateKey second = new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, "second", "cloudbees",
+                new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey2()), "*  .*", "second");
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        TaskListener listener = new StreamTaskListener(log, StandardCharsets.UTF_8);
+        List<AgentIdentity> identities = AgentIdentity.of(List.of(first, second), listener);
+        assertThat(identities, hasSize(2));
+        assertThat(identities.get(1).getPassphrase(), is("*  .*"));
+        assertThat(log.toString(StandardCharsets.UTF_8), not(containsString("first, second")));
+    }
+
+    @Test
+    public void fingerprintMatchesSshKeygen() {
+        String fingerprint = KeyFingerprints.of(new AgentIdentity(getPrivateKey(), "cloudbees", "test"));
+        assertThat(fingerprint, startsWith("SHA256:"));
+        assertThat(KeyFingerprints.of(new AgentIdentity(getPrivateKey2(), "*  .*", "test")), is(fingerprint));
+    }
+}
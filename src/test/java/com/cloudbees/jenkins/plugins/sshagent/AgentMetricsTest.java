@@ -0,0 +1,51 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import hudson.slaves.DumbSlave;
+import jenkins.metrics.api.Metrics;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+public class AgentMetricsTest {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Test
+    public void metricsOfDeletedNodesAreRemoved() throws Exception {
+        DumbSlave node = r.createSlave("cloud.agent-1", null, null);
+        AgentMetrics.count(AgentMetrics.Event.QUEUED, AgentMetrics.node(node.toComputer()));
+        AgentMetrics.record(AgentMetrics.Phase.STARTUP, "exec", AgentMetrics.node(node.toComputer()), AgentMetrics.start());
+        assertThat(Metrics.metricRegistry().getNames(), hasItem("ssh-agent.queued.cloud_agent-1"));
+        assertThat(Metrics.metricRegistry().getNames(), hasItem("ssh-agent.startup.duration.exec.cloud_agent-1"));
+
+        r.jenkins.removeNode(node);
+        assertThat(Metrics.metricRegistry().getNames(), not(hasItem("ssh-agent.queued.cloud_agent-1")));
+        assertThat(Metrics.metricRegistry().getNames(), not(hasItem("ssh-agent.startup.duration.exec.cloud_agent-1")));
+        assertThat(Metrics.metricRegistry().getNames(), hasItem("ssh-agent.queued"));
+        assertThat(Metrics.metricRegistry().getNames(), hasItem("ssh-agent.startup.duration"));
+    }
+
+    @Test
+    public void commandTimeoutsAreCountedByCommandAndNode() throws Exception {
+        DumbSlave node = r.createOnlineSlave();
+        AgentMetrics.commandTimedOut("add", node.getChannel());
+        AgentMetrics.commandTimedOut("add", node.getChannel());
+        AgentMetrics.commandTimedOut("stop", null);
+        String prefix = "ssh-agent.commands.timeouts";
+        assertThat(Metrics.metricRegistry().counter(prefix).getCount(), is(3L));
+        assertThat(Metrics.metricRegistry().counter(prefix + ".add").getCount(), is(2L));
+        assertThat(Metrics.metricRegistry().counter(prefix + ".add." + node.getNodeName()).getCount(), is(2L));
+        assertThat(Metrics.metricRegistry().counter(prefix + ".stop.unknown").getCount(), is(1L));
+
+        r.jenkins.removeNode(node);
+        assertThat(Metrics.metricRegistry().getNames(), not(hasItem(prefix + ".add." + node.getNodeName())));
+        assertThat(Metrics.metricRegistry().getNames(), hasItem(prefix + ".add"));
+        assertThat(Metrics.metricRegistry().getNames(), hasItem(prefix));
+    }
+}
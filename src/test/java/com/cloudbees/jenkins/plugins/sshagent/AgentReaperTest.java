@@ -0,0 +1,104 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.model.FreeStyleBuild;
+import hudson.model.Computer;
+import hudson.model.FreeStyleProject;
+import hudson.model.TaskListener;
+import hudson.slaves.DumbSlave;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assume.assumeFalse;
+
+public class AgentReaperTest {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @After
+    public void resetGrace() {
+        AgentReaper.GRACE = 5;
+    }
+
+    @Test
+    public void agentsOfCompletedRunsAreKilled() throws Exception {
+        assumeFalse(Functions.isWindows());
+        DumbSlave node = r.createOnlineSlave();
+        Launcher launcher = node.createLauncher(TaskListener.NULL);
+        FreeStyleProject p = r.createFreeStyleProject();
+        FreeStyleBuild b = r.buildAndAssertSuccess(p);
+
+        // as left behind by a failed ssh-agent -k
+        RemoteAgent agent = RemoteAgentFactory.startAgent(node.toComputer(), launcher, TaskListener.NULL);
+        long pid = Long.parseLong(agent.getEnv().get("SSH_AGENT_PID"));
+        AgentReaper.register(agent, node.toComputer(), launcher, b);
+        FilePath directory = node.getRootPath().child(AgentReaper.DIRECTORY);
+        while (!directory.isDirectory() || directory.list().isEmpty()) {
+            Thread.sleep(100);
+        }
+
+        // still within the grace period, in case teardown is in progress
+        assertThat(AgentReaper.reap(node.toComputer()), is(0));
+
+        AgentReaper.GRACE = 0;
+        Thread.sleep(10);
+        assertThat(AgentReaper.reap(node.toComputer()), is(1));
+        Optional<ProcessHandle> process = ProcessHandle.of(pid);
+        if (process.isPresent()) {
+            process.get().onExit().get(1, TimeUnit.MINUTES);
+        }
+        assertThat(directory.list(), empty());
+    }
+
+    @Test
+    public void agentsNotHeldByTheirOwnerAnymoreAreKilled() throws Exception {
+        assumeFalse(Functions.isWindows());
+        DumbSlave node = r.createOnlineSlave();
+        Launcher launcher = node.createLauncher(TaskListener.NULL);
+
+        RemoteAgent agent = RemoteAgentFactory.startAgent(node.toComputer(), launcher, TaskListener.NULL);
+        long pid = Long.parseLong(agent.getEnv().get("SSH_AGENT_PID"));
+        TestOwner.HELD.add(pid);
+        AgentReaper.register(agent, node.toComputer(), launcher, r.jenkins.getExtensionList(TestOwner.class).get(0));
+        FilePath directory = node.getRootPath().child(AgentReaper.DIRECTORY);
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+        while (!directory.isDirectory() || directory.list().isEmpty()) {
+            assertThat("registered in time", System.currentTimeMillis() < deadline, is(true));
+            Thread.sleep(100);
+        }
+
+        assertThat(AgentReaper.reap(node.toComputer()), is(0));
+
+        // as after a controller restart
+        TestOwner.HELD.clear();
+        assertThat(AgentReaper.reap(node.toComputer()), is(1));
+        Optional<ProcessHandle> process = ProcessHandle.of(pid);
+        if (process.isPresent()) {
+            process.get().onExit().get(1, TimeUnit.MINUTES);
+        }
+        assertThat(directory.list(), empty());
+    }
+
+    @TestExtension("agentsNotHeldByTheirOwnerAnymoreAreKilled")
+    public static final class TestOwner implements AgentReaper.Owner {
+        static final Set<Long> HELD = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public boolean holds(Computer computer, long pid) {
+            return HELD.contains(pid);
+        }
+    }
+}
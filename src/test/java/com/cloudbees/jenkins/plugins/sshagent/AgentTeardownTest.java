@@ -0,0 +1,63 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+
+public class AgentTeardownTest {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @After
+    public void resetAttempts() {
+        AgentTeardown.ATTEMPTS = 3;
+    }
+
+    @Test
+    public void failuresAreRetriedThenRecorded() throws Exception {
+        AgentTeardown.ATTEMPTS = 2;
+        FreeStyleProject p = r.createFreeStyleProject();
+        FreeStyleBuild b = r.buildAndAssertSuccess(p);
+        FailingAgent agent = new FailingAgent();
+        AgentTeardown.stop(agent, r.createLocalLauncher(), b, TaskListener.NULL).get(1, TimeUnit.MINUTES);
+        assertThat(agent.attempts.get(), is(2));
+        AgentTeardownAction action = b.getAction(AgentTeardownAction.class);
+        assertThat(action, notNullValue());
+        assertThat(action.getFailures(), contains("Failed to run ssh-agent -k"));
+    }
+
+    private static class FailingAgent implements RemoteAgent {
+        final AtomicInteger attempts = new AtomicInteger();
+
+        @Override
+        public void addIdentity(String privateKey, String passphrase, String comment, FilePath ws, Launcher launcher, TaskListener listener) {
+        }
+
+        @Override
+        public Map<String, String> getEnv() {
+            return Map.of();
+        }
+
+        @Override
+        public void stop(Launcher launcher, TaskListener listener) throws IOException {
+            attempts.incrementAndGet();
+            throw new IOException("Failed to run ssh-agent -k");
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
+import com.cloudbees.jenkins.plugins.sshcredentials.impl.BasicSSHUserPrivateKey;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class CredentialResolverTest {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Test
+    public void lookupsAreCachedUntilCredentialsChange() throws Exception {
+        SystemCredentialsProvider store = SystemCredentialsProvider.getInstance();
+        SSHUserPrivateKey first = key("first");
+        store.getCredentials().add(first);
+        store.save();
+        FreeStyleProject p = r.createFreeStyleProject();
+        FreeStyleBuild b = r.buildAndAssertSuccess(p);
+
+        SSHUserPrivateKey found = CredentialResolver.find("key", b);
+        assertThat(found.getDescription(), is("first"));
+        assertThat(CredentialResolver.find("key", b), sameInstance(found));
+        assertThat(CredentialResolver.find("missing", b), nullValue());
+
+        SSHUserPrivateKey second = key("second");
+        store.getCredentials().set(0, second);
+        store.save();
+        assertThat(CredentialResolver.find("key", b).getDescription(), is("second"));
+    }
+
+    @Test
+    public void severalLookupsKeepTheirOrder() throws Exception {
+        SystemCredentialsProvider store = SystemCredentialsProvider.getInstance();
+        for (int i = 0; i < 5; i++) {
+            store.getCredentials().add(key("key" + i, "key " + i));
+        }
+        store.save();
+        FreeStyleBuild b = r.buildAndAssertSuccess(r.createFreeStyleProject());
+
+        List<SSHUserPrivateKey> found = CredentialResolver.findAll(List.of("key3", "missing", "key0", "key4"), b);
+        assertThat(found.size(), is(4));
+        assertThat(found.get(0).getId(), is("key3"));
+        assertThat(found.get(1), nullValue());
+        assertThat(found.get(2).getId(), is("key0"));
+        assertThat(found.get(3).getId(), is("key4"));
+    }
+
+    private static SSHUserPrivateKey key(String description) {
+        return key("key", description);
+    }
+
+    private static SSHUserPrivateKey key(String id, String description) {
+        return new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, id, "cloudbees",
+                new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource("not a key"), null, description);
+    }
+}
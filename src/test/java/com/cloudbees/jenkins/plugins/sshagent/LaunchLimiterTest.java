@@ -0,0 +1,60 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import hudson.slaves.DumbSlave;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThrows;
+
+public class LaunchLimiterTest {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Test
+    public void launchesBeyondTheLimitWaitForTheirTurn() throws Exception {
+        DumbSlave node = r.createOnlineSlave();
+        SSHAgentNodeProperty property = new SSHAgentNodeProperty();
+        property.setMaxConcurrentLaunches(1);
+        node.getNodeProperties().add(property);
+
+        CompletableFuture<Void> second;
+        try (LaunchLimiter.Permit first = LaunchLimiter.acquire(node.toComputer())) {
+            second = CompletableFuture.runAsync(() -> {
+                try (LaunchLimiter.Permit permit = LaunchLimiter.acquire(node.toComputer())) {
+                    // got a turn
+                } catch (InterruptedException x) {
+                    throw new AssertionError(x);
+                }
+            });
+            assertThrows(TimeoutException.class, () -> second.get(1, TimeUnit.SECONDS));
+        }
+        second.get(1, TimeUnit.MINUTES);
+        // no limit on other nodes
+        try (LaunchLimiter.Permit permit = LaunchLimiter.acquire(r.createOnlineSlave().toComputer())) {
+            try (LaunchLimiter.Permit other = LaunchLimiter.acquire(r.jenkins.toComputer())) {
+                // not waiting
+            }
+        }
+    }
+
+    @Test
+    public void limitsOfDeletedNodesAreForgotten() throws Exception {
+        DumbSlave node = r.createOnlineSlave();
+        SSHAgentNodeProperty property = new SSHAgentNodeProperty();
+        property.setMaxConcurrentLaunches(1);
+        node.getNodeProperties().add(property);
+        try (LaunchLimiter.Permit permit = LaunchLimiter.acquire(node.toComputer())) {
+            assertThat(LaunchLimiter.LIMITS, hasKey(node.getNodeName()));
+        }
+        r.jenkins.removeNode(node);
+        assertThat(LaunchLimiter.LIMITS, not(hasKey(node.getNodeName())));
+    }
+}
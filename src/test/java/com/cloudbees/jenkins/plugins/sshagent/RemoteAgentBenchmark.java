@@ -0,0 +1,101 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import java.nio.file.Files;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the life cycle of an agent for each engine, against a local launcher.
+ * <p>
+ * Add the factory of any new engine to {@link #factory}.
+ */
+@JmhBenchmark
+@State(Scope.Thread)
+public class RemoteAgentBenchmark {
+
+    @Param({"com.cloudbees.jenkins.plugins.sshagent.exec.ExecRemoteAgentFactory",
+            "com.cloudbees.jenkins.plugins.sshagent.inprocess.InProcessRemoteAgentFactory"})
+    public String factory;
+
+    private RemoteAgentFactory remoteAgentFactory;
+
+    private Launcher launcher;
+
+    private AgentCapabilities capabilities;
+
+    private FilePath ws;
+
+    /** Used by {@link #addIdentity} and {@link #addIdentityWithPassphrase}. */
+    private RemoteAgent agent;
+
+    /** Started by {@link #startForStop} for {@link #stop}, or by {@link #start} and stopped afterwards. */
+    private RemoteAgent disposable;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        remoteAgentFactory = (RemoteAgentFactory) Class.forName(factory).getDeclaredConstructor().newInstance();
+        launcher = new Launcher.LocalLauncher(TaskListener.NULL);
+        capabilities = AgentCapabilities.of(null, launcher);
+        ws = new FilePath(Files.createTempDirectory("ssh-agent-benchmark").toFile());
+        agent = remoteAgentFactory.start(launcher, TaskListener.NULL, capabilities);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        agent.stop(launcher, TaskListener.NULL);
+        ws.deleteRecursive();
+        ws.sibling(ws.getName() + "@tmp").deleteRecursive();
+    }
+
+    @Benchmark
+    public RemoteAgent start() throws Exception {
+        disposable = remoteAgentFactory.start(launcher, TaskListener.NULL, capabilities);
+        return disposable;
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopDisposable() throws Exception {
+        if (disposable != null) {
+            disposable.stop(launcher, TaskListener.NULL);
+            disposable = null;
+        }
+    }
+
+    @Benchmark
+    public void addIdentity() throws Exception {
+        agent.addIdentity(TestKeys.KEY_WITHOUT_PASSWORD_AND_NO_NEWLINE, null, "plain", ws, launcher, TaskListener.NULL);
+    }
+
+    @Benchmark
+    public void addIdentityWithPassphrase() throws Exception {
+        agent.addIdentity(TestKeys.PRIVATE_KEY, "cloudbees", "with passphrase", ws, launcher, TaskListener.NULL);
+    }
+
+    /**
+     * State starting a fresh agent before each invocation of {@link #stop}.
+     */
+    @State(Scope.Thread)
+    public static class Running {
+
+        RemoteAgent agent;
+
+        @Setup(Level.Invocation)
+        public void startForStop(RemoteAgentBenchmark benchmark) throws Exception {
+            agent = benchmark.remoteAgentFactory.start(benchmark.launcher, TaskListener.NULL, benchmark.capabilities);
+        }
+    }
+
+    @Benchmark
+    public void stop(Running running) throws Exception {
+        running.agent.stop(launcher, TaskListener.NULL);
+    }
+}
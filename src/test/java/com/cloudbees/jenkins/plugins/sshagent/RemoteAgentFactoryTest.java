@@ -0,0 +1,160 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import com.cloudbees.jenkins.plugins.sshagent.exec.ExecRemoteAgent;
+import com.cloudbees.jenkins.plugins.sshagent.inprocess.InProcessRemoteAgent;
+import com.cloudbees.jenkins.plugins.sshagent.inprocess.InProcessRemoteAgentFactory;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.DumbSlave;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import jenkins.metrics.api.Metrics;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assume.assumeFalse;
+
+public class RemoteAgentFactoryTest {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @After
+    public void resetPreferred() {
+        RemoteAgentFactory.PREFERRED = null;
+    }
+
+    @Test
+    public void capabilitiesAreProbedOncePerComputer() throws Exception {
+        assumeFalse(Functions.isWindows());
+        DumbSlave agent = r.createOnlineSlave();
+        Computer computer = agent.toComputer();
+        Launcher launcher = agent.createLauncher(TaskListener.NULL);
+        AgentCapabilities capabilities = AgentCapabilities.of(computer, launcher);
+        assertThat(capabilities.isProbed(), is(true));
+        assertThat(capabilities.isSshAgentAvailable(), is(true));
+        assertThat(capabilities.isSshAddStdinSupported(), is(true));
+        assertThat(AgentCapabilities.of(computer, launcher), sameInstance(capabilities));
+    }
+
+    @Test
+    public void nativeAgentRankedFirst() throws Exception {
+        assumeFalse(Functions.isWindows());
+        DumbSlave agent = r.createOnlineSlave();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        TaskListener listener = new StreamTaskListener(log, StandardCharsets.UTF_8);
+        Launcher launcher = agent.createLauncher(listener);
+        RemoteAgent remoteAgent = RemoteAgentFactory.startAgent(agent.toComputer(), launcher, listener);
+        try {
+            assertThat(remoteAgent, instanceOf(ExecRemoteAgent.class));
+        } finally {
+            remoteAgent.stop(launcher, listener);
+        }
+    }
+
+    @Test
+    public void startupIsTimed() throws Exception {
+        assumeFalse(Functions.isWindows());
+        DumbSlave agent = r.createOnlineSlave();
+        Launcher launcher = agent.createLauncher(TaskListener.NULL);
+        RemoteAgent remoteAgent = RemoteAgentFactory.startAgent(agent.toComputer(), launcher, TaskListener.NULL);
+        try {
+            assertThat(Metrics.metricRegistry().timer("ssh-agent.startup.duration").getCount(), is(1L));
+            assertThat(Metrics.metricRegistry().timer("ssh-agent.startup.duration.exec." + agent.getNodeName()).getCount(), is(1L));
+        } finally {
+            remoteAgent.stop(launcher, TaskListener.NULL);
+        }
+    }
+
+    @Test
+    public void preferredFactory() throws Exception {
+        assumeFalse(Functions.isWindows());
+        RemoteAgentFactory.PREFERRED = InProcessRemoteAgentFactory.class.getName();
+        DumbSlave agent = r.createOnlineSlave();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        TaskListener listener = new StreamTaskListener(log, StandardCharsets.UTF_8);
+        Launcher launcher = agent.createLauncher(listener);
+        RemoteAgent remoteAgent = RemoteAgentFactory.startAgent(agent.toComputer(), launcher, listener);
+        try {
+            assertThat(remoteAgent, instanceOf(InProcessRemoteAgent.class));
+            assertThat(log.toString(StandardCharsets.UTF_8), containsString(new InProcessRemoteAgentFactory().getDisplayName()));
+        } finally {
+            remoteAgent.stop(launcher, listener);
+        }
+    }
+
+    @Test
+    public void nextFactoryTriedWhenStartFails() throws Exception {
+        assumeFalse(Functions.isWindows());
+        RemoteAgentFactory.PREFERRED = FailingFactory.class.getName();
+        DumbSlave agent = r.createOnlineSlave();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        TaskListener listener = new StreamTaskListener(log, StandardCharsets.UTF_8);
+        Launcher launcher = agent.createLauncher(listener);
+        RemoteAgent remoteAgent = RemoteAgentFactory.startAgent(agent.toComputer(), launcher, listener);
+        try {
+            assertThat(remoteAgent, instanceOf(ExecRemoteAgent.class));
+            assertThat(log.toString(StandardCharsets.UTF_8), containsString(Messages.RemoteAgentFactory_Failed("Failing", "broken")));
+        } finally {
+            remoteAgent.stop(launcher, listener);
+        }
+    }
+
+    @TestExtension("nextFactoryTriedWhenStartFails")
+    public static class FailingFactory extends RemoteAgentFactory {
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Failing";
+        }
+
+        @Override
+        public boolean isSupported(@NonNull Launcher launcher, @NonNull AgentCapabilities capabilities) {
+            return true;
+        }
+
+        @NonNull
+        @Override
+        public RemoteAgent start(@NonNull Launcher launcher, @NonNull TaskListener listener,
+                                 @NonNull AgentCapabilities capabilities) throws IOException {
+            throw new IOException("broken");
+        }
+    }
+
+    @Test
+    public void configuredTempDirectory() throws Exception {
+        assumeFalse(Functions.isWindows());
+        DumbSlave agent = r.createOnlineSlave();
+        File dir = tmp.newFolder();
+        SSHAgentNodeProperty property = new SSHAgentNodeProperty();
+        property.setTempDirectory(dir.getAbsolutePath());
+        agent.getNodeProperties().add(property);
+        Launcher launcher = agent.createLauncher(TaskListener.NULL);
+        assertThat(AgentCapabilities.of(agent.toComputer(), launcher).getRuntimeDirectory(), is(dir.getAbsolutePath()));
+        RemoteAgent remoteAgent = RemoteAgentFactory.startAgent(agent.toComputer(), launcher, TaskListener.NULL);
+        try {
+            assertThat(remoteAgent.getEnv().get("SSH_AUTH_SOCK"), startsWith(dir.getAbsolutePath() + File.separator));
+        } finally {
+            remoteAgent.stop(launcher, TaskListener.NULL);
+        }
+    }
+}
@@ -251,4 +251,55 @@ public class SSHAgentBuildWrapperTest extends SSHAgentBase {
         stopMockSSHServer();
     }
 
+    @Test
+    public void sshAgentWithSeveralCredentials() throws Exception {
+        startMockSSHServer();
+
+        List<String> credentialIds = new ArrayList<>();
+        credentialIds.add(CREDENTIAL_ID);
+        credentialIds.add("no-passphrase");
+
+        SystemCredentialsProvider.getInstance().getCredentials().add(new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, credentialIds.get(0), "cloudbees",
+                new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey()), "cloudbees", "test"));
+        SystemCredentialsProvider.getInstance().getCredentials().add(new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, credentialIds.get(1), "cloudbees",
+                new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(KEY_WITHOUT_PASSWORD_AND_NO_NEWLINE), "", "other"));
+        SystemCredentialsProvider.getInstance().save();
+
+        FreeStyleProject job = r.createFreeStyleProject();
+        job.setAssignedNode(r.createSlave());
+
+        SSHAgentBuildWrapper sshAgent = new SSHAgentBuildWrapper(credentialIds, false);
+        job.getBuildWrappersList().add(sshAgent);
+
+        Shell shell = new Shell("test $(ssh-add -l | wc -l) -eq 2 "
+                + "&& ssh -o NoHostAuthenticationForLocalhost=yes -o StrictHostKeyChecking=no -p " + getAssignedPort()
+                + " -v -l cloudbees " + SSH_SERVER_HOST);
+        job.getBuildersList().add(shell);
+
+        FreeStyleBuild build = r.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        r.assertLogContains("Running ssh-add (command line suppressed)", build);
+
+        stopMockSSHServer();
+    }
+
+    @Test
+    public void sshAgentReportsWhichCredentialsFailed() throws Exception {
+        List<String> credentialIds = new ArrayList<>();
+        credentialIds.add(CREDENTIAL_ID);
+        credentialIds.add("no-passphrase");
+
+        SystemCredentialsProvider.getInstance().getCredentials().add(new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, credentialIds.get(0), "cloudbees",
+                new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey()), "BAD-passphrase-cloudbees", "test"));
+        SystemCredentialsProvider.getInstance().getCredentials().add(new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, credentialIds.get(1), "other",
+                new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(KEY_WITHOUT_PASSWORD_AND_NO_NEWLINE), "", "other"));
+        SystemCredentialsProvider.getInstance().save();
+
+        FreeStyleProject job = r.createFreeStyleProject();
+        job.getBuildWrappersList().add(new SSHAgentBuildWrapper(credentialIds, false));
+
+        FreeStyleBuild build = r.assertBuildStatus(Result.FAILURE, job.scheduleBuild2(0).get());
+        r.assertLogContains("Unable to read key: cloudbees (test)", build);
+        r.assertLogNotContains("Unable to read key: other (other)", build);
+    }
+
 }
@@ -0,0 +1,165 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import com.cloudbees.jenkins.plugins.sshcredentials.impl.BasicSSHUserPrivateKey;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleProject;
+import hudson.model.Run;
+import hudson.slaves.DumbSlave;
+import hudson.tasks.Shell;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+import org.jvnet.hudson.test.recipes.WithTimeout;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs many Pipeline and freestyle builds entering {@code sshagent} at once, to catch scaling regressions.
+ * <p>
+ * Skipped unless the number of builds is given, e.g. {@code mvn test -Dtest=SSHAgentScaleTest -Dssh-agent.scale.builds=200}.
+ * Reports throughput, time from build start to body, peak processes and leaked agents on standard output.
+ */
+public class SSHAgentScaleTest extends SSHAgentBase {
+
+    private static final int BUILDS = Integer.getInteger("ssh-agent.scale.builds", 0);
+
+    private static final Pattern TIME_TO_BODY = Pattern.compile("time-to-body=(\\d+)");
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Test
+    @WithTimeout(3600)
+    public void concurrentBlocks() throws Exception {
+        assumeTrue("set ssh-agent.scale.builds to run", BUILDS > 0);
+        assumeFalse(Functions.isWindows());
+        startMockSSHServer();
+        try {
+            SystemCredentialsProvider.getInstance().getCredentials().add(new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL,
+                    CREDENTIAL_ID, "cloudbees", new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey()),
+                    "cloudbees", "test"));
+            SystemCredentialsProvider.getInstance().save();
+            DumbSlave agent = r.createSlave("scale", null, null);
+            agent.setNumExecutors(BUILDS);
+            r.jenkins.updateNode(agent);
+            r.waitOnline(agent);
+
+            String ssh = "ssh -o NoHostAuthenticationForLocalhost=yes -o StrictHostKeyChecking=no -p " + getAssignedPort()
+                    + " -l cloudbees " + SSH_SERVER_HOST;
+            ConcurrentLinkedQueue<Long> freestyleTimes = new ConcurrentLinkedQueue<>();
+            List<Future<? extends Run<?, ?>>> builds = new ArrayList<>();
+            List<Runnable> schedules = new ArrayList<>();
+            for (int i = 0; i < BUILDS; i++) {
+                if (i % 2 == 0) {
+                    WorkflowJob job = r.createProject(WorkflowJob.class, "pipeline-" + i);
+                    job.setDefinition(new CpsFlowDefinition(""
+                            + "node('scale') {\n"
+                            + "  long before = System.currentTimeMillis()\n"
+                            + "  sshagent(credentials: ['" + CREDENTIAL_ID + "']) {\n"
+                            + "    echo \"time-to-body=${System.currentTimeMillis() - before}\"\n"
+                            + "    sh '" + ssh + "'\n"
+                            + "  }\n"
+                            + "}\n", false));
+                    schedules.add(() -> builds.add(job.scheduleBuild2(0)));
+                } else {
+                    FreeStyleProject job = r.createFreeStyleProject("freestyle-" + i);
+                    job.setAssignedNode(agent);
+                    job.getBuildWrappersList().add(new SSHAgentBuildWrapper(List.of(CREDENTIAL_ID), false));
+                    job.getBuildersList().add(new TestBuilder() {
+                        @Override
+                        public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
+                            freestyleTimes.add(System.currentTimeMillis() - build.getStartTimeInMillis());
+                            return true;
+                        }
+                    });
+                    job.getBuildersList().add(new Shell(ssh));
+                    schedules.add(() -> builds.add(job.scheduleBuild2(0)));
+                }
+            }
+
+            long baseline = agentProcesses();
+            AtomicLong peakAgents = new AtomicLong();
+            AtomicLong peakProcesses = new AtomicLong();
+            AtomicBoolean sampling = new AtomicBoolean(true);
+            Thread sampler = new Thread(() -> {
+                while (sampling.get()) {
+                    peakAgents.accumulateAndGet(agentProcesses() - baseline, Math::max);
+                    peakProcesses.accumulateAndGet(ProcessHandle.current().descendants().count(), Math::max);
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException x) {
+                        return;
+                    }
+                }
+            }, "SSHAgentScaleTest.sampler");
+            sampler.start();
+
+            long start = System.nanoTime();
+            schedules.forEach(Runnable::run);
+            List<Long> timesToBody = new ArrayList<>();
+            for (Future<? extends Run<?, ?>> future : builds) {
+                Run<?, ?> run = r.assertBuildStatusSuccess(future);
+                if (run instanceof WorkflowRun) {
+                    Matcher m = TIME_TO_BODY.matcher(JenkinsRule.getLog(run));
+                    assertThat(JenkinsRule.getLog(run), m.find(), is(true));
+                    timesToBody.add(Long.parseLong(m.group(1)));
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            timesToBody.addAll(freestyleTimes);
+
+            // agents are stopped in the background once builds complete
+            long leaked = agentProcesses() - baseline;
+            for (long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1); leaked > 0 && System.nanoTime() < deadline; ) {
+                Thread.sleep(500);
+                leaked = agentProcesses() - baseline;
+            }
+            sampling.set(false);
+            sampler.join();
+
+            Collections.sort(timesToBody);
+            System.out.printf("[scale] builds=%d elapsed=%.1fs throughput=%.2f builds/s%n",
+                    BUILDS, elapsed / 1e9, BUILDS / (elapsed / 1e9));
+            System.out.printf("[scale] time-to-body p50=%dms p99=%dms max=%dms%n",
+                    percentile(timesToBody, 50), percentile(timesToBody, 99), timesToBody.get(timesToBody.size() - 1));
+            System.out.printf("[scale] peak ssh-agent processes=%d peak descendant processes=%d leaked agents=%d%n",
+                    peakAgents.get(), peakProcesses.get(), leaked);
+            assertThat("leaked agents", leaked, is(0L));
+        } finally {
+            stopMockSSHServer();
+        }
+    }
+
+    private static long agentProcesses() {
+        return ProcessHandle.allProcesses()
+                .filter(p -> p.info().command().map(c -> c.endsWith("/ssh-agent") || c.equals("ssh-agent")).orElse(false))
+                .count();
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+}
@@ -0,0 +1,162 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
+import com.cloudbees.jenkins.plugins.sshcredentials.impl.BasicSSHUserPrivateKey;
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Functions;
+import hudson.model.ItemGroup;
+import hudson.model.Result;
+import hudson.slaves.DumbSlave;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.test.steps.SemaphoreStep;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+import org.springframework.security.core.Authentication;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assume.assumeFalse;
+
+public class SSHAgentStepExecutionTest {
+
+    private static final String CREDENTIAL_ID = "slow";
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    private DumbSlave node;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeFalse(Functions.isWindows());
+        CredentialResolver.invalidate();
+        SlowProvider.looking = new CountDownLatch(1);
+        SlowProvider.release = new CountDownLatch(1);
+        SlowProvider.thread = null;
+        SystemCredentialsProvider.getInstance().getCredentials().add(new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL,
+                CREDENTIAL_ID, "cloudbees", new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(TestKeys.PRIVATE_KEY), "cloudbees", "test"));
+        SystemCredentialsProvider.getInstance().save();
+        node = r.createOnlineSlave();
+    }
+
+    @After
+    public void release() {
+        SlowProvider.release.countDown();
+    }
+
+    @Test
+    public void startupDoesNotHoldUpOtherBranches() throws Exception {
+        WorkflowJob p = r.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition(""
+                + "parallel agent: {\n"
+                + "  node('" + node.getNodeName() + "') {\n"
+                + "    sshagent(['" + CREDENTIAL_ID + "']) {\n"
+                + "      echo 'inside'\n"
+                + "    }\n"
+                + "  }\n"
+                + "}, other: {\n"
+                + "  semaphore 'other'\n"
+                + "  echo 'other branch ran'\n"
+                + "}\n", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        assertThat("credentials looked up in time", SlowProvider.looking.await(1, TimeUnit.MINUTES), is(true));
+        assertThat(SlowProvider.thread, startsWith("SSHAgentStepExecution.start"));
+
+        // needs the CPS VM thread, while the lookup is still blocked
+        SemaphoreStep.success("other/1", null);
+        r.waitForMessage("other branch ran", b);
+
+        SlowProvider.release.countDown();
+        r.assertBuildStatusSuccess(r.waitForCompletion(b));
+        r.assertLogContains("inside", b);
+    }
+
+    @Test
+    public void nodeIsProbedWhileCredentialsAreLookedUp() throws Exception {
+        WorkflowJob p = r.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node('" + node.getNodeName() + "') {\n"
+                + "  sshagent(['" + CREDENTIAL_ID + "']) {\n"
+                + "    echo 'inside'\n"
+                + "  }\n"
+                + "}\n", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        assertThat("credentials looked up in time", SlowProvider.looking.await(1, TimeUnit.MINUTES), is(true));
+
+        // lookup still held up
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (!AgentCapabilities.isCached(node.toComputer())) {
+            assertThat("probed in time", System.nanoTime() - deadline < 0, is(true));
+            Thread.sleep(100);
+        }
+
+        SlowProvider.release.countDown();
+        r.assertBuildStatusSuccess(r.waitForCompletion(b));
+        r.assertLogContains("inside", b);
+    }
+
+    @Test
+    public void stoppingDuringStartupSkipsTheBody() throws Exception {
+        WorkflowJob p = r.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node('" + node.getNodeName() + "') {\n"
+                + "  sshagent(['" + CREDENTIAL_ID + "']) {\n"
+                + "    echo 'inside'\n"
+                + "  }\n"
+                + "}\n", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        assertThat("credentials looked up in time", SlowProvider.looking.await(1, TimeUnit.MINUTES), is(true));
+
+        b.doStop();
+        r.assertBuildStatus(Result.ABORTED, r.waitForCompletion(b));
+        r.assertLogNotContains("inside", b);
+    }
+
+    /**
+     * Holds up lookups of SSH keys until released, as a remote credentials store could.
+     */
+    @TestExtension
+    public static final class SlowProvider extends CredentialsProvider {
+
+        static volatile CountDownLatch looking = new CountDownLatch(0);
+
+        static volatile CountDownLatch release = new CountDownLatch(0);
+
+        /** Name of the thread which looked up credentials. */
+        static volatile String thread;
+
+        @NonNull
+        @Override
+        public <C extends Credentials> List<C> getCredentialsInItemGroup(@NonNull Class<C> type, @CheckForNull ItemGroup itemGroup,
+                @CheckForNull Authentication authentication, @NonNull List<DomainRequirement> domainRequirements) {
+            if (SSHUserPrivateKey.class.isAssignableFrom(type)) {
+                thread = Thread.currentThread().getName();
+                looking.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException x) {
+                    // as when the step is stopped
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return Collections.emptyList();
+        }
+    }
+}
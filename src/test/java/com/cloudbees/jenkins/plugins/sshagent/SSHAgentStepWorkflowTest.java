@@ -164,6 +164,42 @@ public class SSHAgentStepWorkflowTest extends SSHAgentBase {
 
     }
 
+    @Test
+    public void agentRespawnedAfterRestart() throws Exception {
+        assumeFalse(Functions.isWindows());
+        story.addStep(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                SSHUserPrivateKey key = new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, CREDENTIAL_ID, "cloudbees",
+                        new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey()), "cloudbees", "test");
+                SystemCredentialsProvider.getInstance().getCredentials().add(key);
+                SystemCredentialsProvider.getInstance().save();
+
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "agentRespawnedAfterRestart");
+                p.setDefinition(new CpsFlowDefinition(""
+                        + "node {\n"
+                        + "  sshagent (credentials: ['" + CREDENTIAL_ID + "']) {\n"
+                        + "    sh 'ssh-agent -k'\n"
+                        + "    semaphore 'agentRespawnedAfterRestart'\n"
+                        + "    sh 'ssh-add -l'\n"
+                        + "  }\n"
+                        + "}\n", true));
+                WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+                SemaphoreStep.waitForStart("agentRespawnedAfterRestart/1", b);
+            }
+        });
+        story.addStep(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                WorkflowRun b = story.j.jenkins.getItemByFullName("agentRespawnedAfterRestart", WorkflowJob.class).getBuildByNumber(1);
+                // steps do not wait for the agent to be checked
+                story.j.waitForMessage("The agent did not survive the restart", b);
+                SemaphoreStep.success("agentRespawnedAfterRestart/1", null);
+                story.j.assertBuildStatusSuccess(story.j.waitForCompletion(b));
+            }
+        });
+    }
+
     /**
      * This test verifies that sshAgent step handles that the build agent
      * disconnects and reconnects during the step execution.
@@ -319,4 +355,73 @@ public class SSHAgentStepWorkflowTest extends SSHAgentBase {
         });
     }
 
+    @Test
+    public void reuseAgentWithSameCredentials() {
+        assumeFalse(Functions.isWindows());
+        story.addStep(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                SSHAgentGlobalConfiguration.get().setReuseAgents(true);
+                SSHUserPrivateKey key = new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, CREDENTIAL_ID, "cloudbees",
+                        new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey()), "cloudbees", "test");
+                SystemCredentialsProvider.getInstance().getCredentials().add(key);
+                SystemCredentialsProvider.getInstance().save();
+
+                WorkflowJob job = story.j.jenkins.createProject(WorkflowJob.class, "reuseAgentWithSameCredentials");
+                job.setDefinition(new CpsFlowDefinition(""
+                        + "node('" + story.j.createSlave().getNodeName() + "') {\n"
+                        + "  sshagent (credentials: ['" + CREDENTIAL_ID + "']) {\n"
+                        + "    sh 'echo socket=$SSH_AUTH_SOCK; ssh-add -l'\n"
+                        + "  }\n"
+                        + "}\n", true)
+                );
+                WorkflowRun first = story.j.buildAndAssertSuccess(job);
+                story.j.assertLogContains("Kept the agent running for reuse", first);
+                story.j.assertLogNotContains(Messages.AgentTeardown_Stopping(), first);
+                WorkflowRun second = story.j.buildAndAssertSuccess(job);
+                story.j.assertLogContains("Reusing an agent already holding these credentials", second);
+                story.j.assertLogNotContains("Running ssh-add", second);
+            }
+        });
+    }
+
+    @Test
+    public void timingsAreRecorded() {
+        assumeFalse(Functions.isWindows());
+        story.addStep(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                SSHUserPrivateKey key = new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, CREDENTIAL_ID, "cloudbees",
+                        new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey()), "cloudbees", "test");
+                SystemCredentialsProvider.getInstance().getCredentials().add(key);
+                SystemCredentialsProvider.getInstance().save();
+
+                WorkflowJob job = story.j.jenkins.createProject(WorkflowJob.class, "timingsAreRecorded");
+                job.setDefinition(new CpsFlowDefinition(""
+                        + "node('" + story.j.createSlave().getNodeName() + "') {\n"
+                        + "  sshagent (credentials: ['" + CREDENTIAL_ID + "']) {\n"
+                        + "    sh 'ssh-add -l'\n"
+                        + "  }\n"
+                        + "}\n", true)
+                );
+                WorkflowRun b = story.j.buildAndAssertSuccess(job);
+                AgentTimingAction action = b.getAction(AgentTimingAction.class);
+                assertThat(action, notNullValue());
+                assertThat(action.getBlocks().size(), is(1));
+                AgentTimingAction.Block block = action.getBlocks().get(0);
+                assertTrue(block.getCredentials() >= 0);
+                assertTrue(block.getStartup() >= 0);
+                assertThat(block.getIdentityLoads().size(), is(1));
+                long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+                while (block.getTeardown() < 0) {
+                    assertTrue("teardown was not timed", System.nanoTime() - deadline < 0);
+                    Thread.sleep(100);
+                }
+                JenkinsRule.WebClient wc = story.j.createWebClient();
+                wc.getPage(b, "sshAgentTimings/");
+                wc.getPage(job, "sshAgentTimings/");
+            }
+        });
+    }
+
 }
@@ -0,0 +1,59 @@
+package com.cloudbees.jenkins.plugins.sshagent.exec;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentIdentity;
+import com.cloudbees.jenkins.plugins.sshagent.TestKeys;
+import com.cloudbees.jenkins.plugins.sshagent.exec.CommandTimeouts.Command;
+import hudson.remoting.LocalChannel;
+import hudson.remoting.VirtualChannel;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class CommandTimeoutsTest {
+
+    @Test
+    public void timeoutsFollowObservedDurations() {
+        VirtualChannel channel = new LocalChannel(Executors.newSingleThreadExecutor());
+        long ceiling = TimeUnit.SECONDS.toMillis(CommandTimeouts.CEILING);
+        assertThat("no history", CommandTimeouts.timeoutMillis(channel, Command.START), is(ceiling));
+        assertThat(CommandTimeouts.hedgeDelayMillis(channel, 0), is(-1L));
+        for (int i = 0; i < 20; i++) {
+            // started 10ms ago
+            CommandTimeouts.record(channel, Command.START, 1, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        assertThat("floor applies", CommandTimeouts.timeoutMillis(channel, Command.START), is(TimeUnit.SECONDS.toMillis(CommandTimeouts.FLOOR)));
+        assertThat(CommandTimeouts.hedgeDelayMillis(channel, 0), lessThan(1000L));
+        assertThat("keys need their own history", CommandTimeouts.hedgeDelayMillis(channel, 1), is(-1L));
+        for (int i = 0; i < 20; i++) {
+            CommandTimeouts.record(channel, Command.STOP, 1, System.nanoTime() - TimeUnit.SECONDS.toNanos(30));
+        }
+        assertThat("ceiling applies", CommandTimeouts.timeoutMillis(channel, Command.STOP), is(ceiling));
+    }
+
+    @Test
+    public void keysWithPassphraseHaveTheirOwnHistory() {
+        VirtualChannel channel = new LocalChannel(Executors.newSingleThreadExecutor());
+        long ceiling = TimeUnit.SECONDS.toMillis(CommandTimeouts.CEILING);
+        AgentIdentity plain = new AgentIdentity(TestKeys.KEY_WITHOUT_PASSWORD_AND_NO_NEWLINE, null, "no passphrase");
+        AgentIdentity encrypted = new AgentIdentity(TestKeys.PRIVATE_KEY, "cloudbees", "with passphrase");
+        for (int i = 0; i < 20; i++) {
+            CommandTimeouts.recordAdd(channel, List.of(plain), System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        assertThat(CommandTimeouts.timeoutMillis(channel, CommandTimeouts.add(List.of(plain))), is(TimeUnit.SECONDS.toMillis(CommandTimeouts.FLOOR)));
+        assertThat("plain keys tell nothing about keys with a passphrase",
+                CommandTimeouts.timeoutMillis(channel, CommandTimeouts.add(List.of(plain, encrypted))), is(ceiling));
+        for (int i = 0; i < 20; i++) {
+            CommandTimeouts.recordLoads(channel, List.of(plain, encrypted), List.of(TimeUnit.MILLISECONDS.toNanos(10), TimeUnit.SECONDS.toNanos(2)));
+        }
+        assertThat(CommandTimeouts.timeoutMillis(channel, CommandTimeouts.add(List.of(plain))), is(TimeUnit.SECONDS.toMillis(CommandTimeouts.FLOOR)));
+        assertThat(CommandTimeouts.timeoutMillis(channel, CommandTimeouts.add(List.of(encrypted))),
+                allOf(greaterThan(TimeUnit.SECONDS.toMillis(20)), lessThan(ceiling)));
+    }
+}
@@ -0,0 +1,61 @@
+package com.cloudbees.jenkins.plugins.sshagent.exec;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentIdentity;
+import com.cloudbees.jenkins.plugins.sshagent.RemoteAgent;
+import com.cloudbees.jenkins.plugins.sshagent.RemoteAgentFactory;
+import com.cloudbees.jenkins.plugins.sshagent.SSHAgentBase;
+import com.cloudbees.jenkins.plugins.sshagent.SSHAgentNodeProperty;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.slaves.DumbSlave;
+import hudson.util.StreamTaskListener;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assume.assumeFalse;
+
+public class ExecAgentPoolTest extends SSHAgentBase {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Test
+    public void leasedAgentsAreNotHandedToLaterBuilds() throws Exception {
+        assumeFalse(Functions.isWindows());
+        DumbSlave agent = r.createOnlineSlave();
+        SSHAgentNodeProperty property = new SSHAgentNodeProperty();
+        property.setPoolSize(1);
+        agent.getNodeProperties().add(property);
+        TaskListener listener = StreamTaskListener.fromStdout();
+        Launcher launcher = agent.createLauncher(listener);
+        FilePath ws = agent.getRootPath().child("ws");
+
+        RemoteAgent first = RemoteAgentFactory.startAgent(agent.toComputer(), launcher, listener);
+        assertThat(first, instanceOf(PooledRemoteAgent.class));
+        first.addIdentities(List.of(new AgentIdentity(KEY_WITHOUT_PASSWORD_AND_NO_NEWLINE, null, "no passphrase")), ws, launcher, listener);
+        assertThat(launcher.launch().cmds("ssh-add", "-l").envs(first.getEnv()).stdout(listener).start()
+                .joinWithTimeout(1, TimeUnit.MINUTES, listener), is(0));
+        first.stop(launcher, listener);
+
+        RemoteAgent second = RemoteAgentFactory.startAgent(agent.toComputer(), launcher, listener);
+        try {
+            assertThat(second, instanceOf(PooledRemoteAgent.class));
+            // never the agent of the former build
+            assertThat(second.getEnv().get("SSH_AGENT_PID"), not(first.getEnv().get("SSH_AGENT_PID")));
+            // ssh-add -l exits with 1 when the agent has no identities
+            assertThat(launcher.launch().cmds("ssh-add", "-l").envs(second.getEnv()).stdout(listener).start()
+                    .joinWithTimeout(1, TimeUnit.MINUTES, listener), is(1));
+        } finally {
+            second.stop(launcher, listener);
+        }
+    }
+}
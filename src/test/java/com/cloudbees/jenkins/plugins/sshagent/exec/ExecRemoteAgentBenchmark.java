@@ -0,0 +1,25 @@
+package com.cloudbees.jenkins.plugins.sshagent.exec;
+
+import hudson.model.TaskListener;
+import java.util.Map;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the parts of {@link ExecRemoteAgent} not involving processes.
+ */
+@JmhBenchmark
+@State(Scope.Thread)
+public class ExecRemoteAgentBenchmark {
+
+    private final String output = "SSH_AUTH_SOCK=/tmp/ssh-XXXXXXkFJmPd/agent.12345; export SSH_AUTH_SOCK;\n"
+            + "SSH_AGENT_PID=12346; export SSH_AGENT_PID;\n"
+            + "echo Agent pid 12346;\n";
+
+    @Benchmark
+    public Map<String, String> parseAgentEnv() throws Exception {
+        return ExecRemoteAgent.parseAgentEnv(output, TaskListener.NULL);
+    }
+}
@@ -0,0 +1,203 @@
+package com.cloudbees.jenkins.plugins.sshagent.exec;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentIdentity;
+import com.cloudbees.jenkins.plugins.sshagent.RemoteAgent;
+import com.cloudbees.jenkins.plugins.sshagent.RemoteAgentFactory;
+import com.cloudbees.jenkins.plugins.sshagent.SSHAgentBase;
+import com.cloudbees.jenkins.plugins.sshagent.SSHAgentGlobalConfiguration;
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.WorkspaceList;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import jenkins.security.MasterToSlaveCallable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assume.assumeFalse;
+
+public class ExecRemoteAgentFactoryTest extends SSHAgentBase {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Test
+    public void startWithIdentitiesWithoutWorkspace() throws Exception {
+        assumeFalse(Functions.isWindows());
+        DumbSlave agent = r.createOnlineSlave();
+        TaskListener listener = StreamTaskListener.fromStdout();
+        Launcher launcher = agent.createLauncher(listener);
+        List<AgentIdentity> identities = List.of(
+                new AgentIdentity(KEY_WITHOUT_PASSWORD_AND_NO_NEWLINE, null, "no passphrase"),
+                new AgentIdentity(getPrivateKey(), "cloudbees", "with passphrase"));
+
+        // no workspace, so loading cannot fall back to temporary files
+        RemoteAgent remoteAgent = RemoteAgentFactory.startAgent(agent.toComputer(), launcher, listener, identities, null);
+        String socket = remoteAgent.getEnv().get("SSH_AUTH_SOCK");
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertThat(launcher.launch().cmds("ssh-add", "-l").envs(remoteAgent.getEnv()).stdout(out).start()
+                    .joinWithTimeout(1, TimeUnit.MINUTES, listener), is(0));
+            String listed = out.toString(StandardCharsets.UTF_8);
+            assertThat(listed, containsString(KEY_WITHOUT_PASSWORD_FINGERPRINT));
+            assertThat(listed, containsString(KEY_FINGERPRINT));
+        } finally {
+            remoteAgent.stop(launcher, listener);
+        }
+        assertThat(new File(socket).exists(), is(false));
+    }
+
+    @Test
+    public void hedgedStartLoadsKeysOnceAndLogsOnlyTheAgentKept() throws Exception {
+        assumeFalse(Functions.isWindows());
+        DumbSlave agent = r.createOnlineSlave();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        TaskListener listener = new StreamTaskListener(log, StandardCharsets.UTF_8);
+        Launcher launcher = agent.createLauncher(listener);
+        for (int i = 0; i < 20; i++) {
+            // as if starting always took no time, so that a second agent is started right away
+            CommandTimeouts.record(agent.getChannel(), CommandTimeouts.Command.START, 1, System.nanoTime());
+            CommandTimeouts.record(agent.getChannel(), CommandTimeouts.Command.ADD, 1, System.nanoTime());
+        }
+        List<AgentIdentity> identities = List.of(new AgentIdentity(getPrivateKey(), "cloudbees", "with passphrase"));
+
+        RemoteAgent remoteAgent = RemoteAgentFactory.startAgent(agent.toComputer(), launcher, listener, identities, null);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertThat(launcher.launch().cmds("ssh-add", "-l").envs(remoteAgent.getEnv()).stdout(out).start()
+                    .joinWithTimeout(1, TimeUnit.MINUTES, listener), is(0));
+            assertThat(out.toString(StandardCharsets.UTF_8), containsString(KEY_FINGERPRINT));
+        } finally {
+            remoteAgent.stop(launcher, listener);
+        }
+        String logged = log.toString(StandardCharsets.UTF_8);
+        assertThat(logged, containsString(Messages.ExecRemoteAgentFactory_Hedging()));
+        assertThat(logged.split("SSH_AUTH_SOCK=", -1).length - 1, is(1));
+    }
+
+    @Test
+    public void onlyFailingIdentitiesAreReported() throws Exception {
+        assumeFalse(Functions.isWindows());
+        DumbSlave agent = r.createOnlineSlave();
+        FilePath ws = agent.getRootPath().child("ws");
+        ws.mkdirs();
+        List<AgentIdentity> identities = List.of(
+                new AgentIdentity(KEY_WITHOUT_PASSWORD_AND_NO_NEWLINE, null, "no passphrase"),
+                new AgentIdentity(getPrivateKey(), "wrong", "bad passphrase"));
+        // with a single ssh-add and one askpass script, then one ssh-add per key as on OpenSSH before 8.4
+        for (boolean askpassRequire : new boolean[] {true, false}) {
+            ByteArrayOutputStream log = new ByteArrayOutputStream();
+            TaskListener listener = new StreamTaskListener(log, StandardCharsets.UTF_8);
+            Launcher launcher = agent.createLauncher(listener);
+            ExecRemoteAgent remoteAgent = new ExecRemoteAgent(launcher, listener, false, null, askpassRequire, null);
+            try {
+                assertThrows(AbortException.class, () -> remoteAgent.addIdentities(identities, ws, launcher, listener));
+                String output = log.toString(StandardCharsets.UTF_8);
+                assertThat(output, containsString(com.cloudbees.jenkins.plugins.sshagent.Messages.SSHAgentBuildWrapper_UnableToReadKey("bad passphrase")));
+                assertThat(output, not(containsString(com.cloudbees.jenkins.plugins.sshagent.Messages.SSHAgentBuildWrapper_UnableToReadKey("no passphrase"))));
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                assertThat(launcher.launch().cmds("ssh-add", "-l").envs(remoteAgent.getEnv()).stdout(out).start()
+                        .joinWithTimeout(1, TimeUnit.MINUTES, listener), is(0));
+                assertThat(out.toString(StandardCharsets.UTF_8), containsString(KEY_WITHOUT_PASSWORD_FINGERPRINT));
+                assertThat(out.toString(StandardCharsets.UTF_8), not(containsString(KEY_FINGERPRINT)));
+            } finally {
+                remoteAgent.stop(launcher, listener);
+            }
+        }
+        assertThat(WorkspaceList.tempDir(ws).list().size(), is(0));
+    }
+
+    @Test
+    public void socketActivatedAgentStartsOnFirstConnection() throws Exception {
+        assumeFalse(Functions.isWindows());
+        SSHAgentGlobalConfiguration.get().setSocketActivation(true);
+        DumbSlave agent = r.createOnlineSlave();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        TaskListener listener = new StreamTaskListener(log, StandardCharsets.UTF_8);
+        Launcher launcher = agent.createLauncher(listener);
+        List<AgentIdentity> identities = List.of(new AgentIdentity(getPrivateKey(), "cloudbees", "with passphrase"));
+
+        RemoteAgent unused = RemoteAgentFactory.startAgent(agent.toComputer(), launcher, listener, identities, null);
+        assertThat(unused, instanceOf(ActivatedRemoteAgent.class));
+        unused.stop(launcher, listener);
+        assertThat(log.toString(StandardCharsets.UTF_8), containsString(Messages.ActivatedRemoteAgent_NeverStarted()));
+
+        log.reset();
+        RemoteAgent remoteAgent = RemoteAgentFactory.startAgent(agent.toComputer(), launcher, listener, identities, null);
+        String socket = remoteAgent.getEnv().get("SSH_AUTH_SOCK");
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertThat(launcher.launch().cmds("ssh-add", "-l").envs(remoteAgent.getEnv()).stdout(out).start()
+                    .joinWithTimeout(1, TimeUnit.MINUTES, listener), is(0));
+            assertThat(out.toString(StandardCharsets.UTF_8), containsString(KEY_FINGERPRINT));
+        } finally {
+            remoteAgent.stop(launcher, listener);
+        }
+        assertThat(log.toString(StandardCharsets.UTF_8), not(containsString(Messages.ActivatedRemoteAgent_NeverStarted())));
+        assertThat(new File(socket).exists(), is(false));
+    }
+
+    @Test
+    public void socketActivatedAgentReportsUnreadableKeysUpFront() throws Exception {
+        assumeFalse(Functions.isWindows());
+        SSHAgentGlobalConfiguration.get().setSocketActivation(true);
+        DumbSlave agent = r.createOnlineSlave();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        TaskListener listener = new StreamTaskListener(log, StandardCharsets.UTF_8);
+        Launcher launcher = agent.createLauncher(listener);
+        List<AgentIdentity> identities = List.of(new AgentIdentity(getPrivateKey(), "wrong", "bad passphrase"));
+
+        assertThrows(AbortException.class,
+                () -> RemoteAgentFactory.startAgent(agent.toComputer(), launcher, listener, identities, null));
+        assertThat(log.toString(StandardCharsets.UTF_8),
+                containsString(com.cloudbees.jenkins.plugins.sshagent.Messages.SSHAgentBuildWrapper_UnableToReadKey("bad passphrase")));
+    }
+
+    @Test
+    public void keysCachedOnNodeAreSentAgainWhenMissing() throws Exception {
+        assumeFalse(Functions.isWindows());
+        DumbSlave agent = r.createOnlineSlave();
+        TaskListener listener = StreamTaskListener.fromStdout();
+        Launcher launcher = agent.createLauncher(listener);
+        List<AgentIdentity> identities = List.of(new AgentIdentity(getPrivateKey(), "cloudbees", "with passphrase"));
+
+        // first one sends the key in full, second one by digest, third one after the node lost it
+        for (int i = 0; i < 3; i++) {
+            if (i == 2) {
+                agent.getChannel().call(new Purge());
+            }
+            RemoteAgent remoteAgent = RemoteAgentFactory.startAgent(agent.toComputer(), launcher, listener, identities, null);
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                assertThat(launcher.launch().cmds("ssh-add", "-l").envs(remoteAgent.getEnv()).stdout(out).start()
+                        .joinWithTimeout(1, TimeUnit.MINUTES, listener), is(0));
+                assertThat(out.toString(StandardCharsets.UTF_8), containsString(KEY_FINGERPRINT));
+            } finally {
+                remoteAgent.stop(launcher, listener);
+            }
+        }
+    }
+
+    private static class Purge extends MasterToSlaveCallable<Void, RuntimeException> {
+        @Override
+        public Void call() {
+            NodeKeyCache.purge();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.cloudbees.jenkins.plugins.sshagent.exec;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentCapabilities;
+import com.cloudbees.jenkins.plugins.sshagent.AgentIdentity;
+import com.cloudbees.jenkins.plugins.sshagent.SSHAgentBase;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.WorkspaceList;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assume.assumeFalse;
+
+public class ExecRemoteAgentTest extends SSHAgentBase {
+
+    /**
+     * An agent as serialized in the program of a running Pipeline by the plugin before {@code RemoteAgent} was
+     * introduced, when the class only had its {@code agentEnv} field and no explicit {@code serialVersionUID}.
+     */
+    private static final String BEFORE_REMOTE_AGENT = "rO0ABXNyADtjb20uY2xvdWRiZWVzLmplbmtpbnMucGx1Z2lucy5zc2hhZ2VudC5leGVjLkV4ZWNSZW1vdGVBZ2VudOF+XR5p1hDxAgABTAAIYWdlbnRFbnZ0AA9MamF2YS91dGlsL01hcDt4cHNyABFqYXZhLnV0aWwuSGFzaE1hcAUH2sHDFmDRAwACRgAKbG9hZEZhY3RvckkACXRocmVzaG9sZHhwP0AAAAAAAAx3CAAAABAAAAACdAANU1NIX0FVVEhfU09DS3QAIC90bXAvc3NoLVhYWFhYWGFiY2RlZi9hZ2VudC4xMjM0dAANU1NIX0FHRU5UX1BJRHQABDEyMzV4";
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Test
+    public void agentsSerializedByEarlierVersionsStillLoad() throws Exception {
+        Object agent;
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(BEFORE_REMOTE_AGENT)))) {
+            agent = ois.readObject();
+        }
+        assertThat(agent, instanceOf(ExecRemoteAgent.class));
+        assertThat(((ExecRemoteAgent) agent).getEnv(), hasEntry("SSH_AUTH_SOCK", "/tmp/ssh-XXXXXXabcdef/agent.1234"));
+        assertThat(((ExecRemoteAgent) agent).getEnv(), hasEntry("SSH_AGENT_PID", "1235"));
+    }
+
+    @Test
+    public void keysStreamedOnStdin() throws Exception {
+        assumeFalse(Functions.isWindows());
+        DumbSlave agent = r.createOnlineSlave();
+        TaskListener listener = StreamTaskListener.fromStdout();
+        Launcher launcher = agent.createLauncher(listener);
+        String askpassHelper = AgentCapabilities.of(agent.toComputer(), launcher).getAskpassHelper();
+        assertThat(askpassHelper, notNullValue());
+        ExecRemoteAgent remoteAgent = new ExecRemoteAgent(launcher, listener, true, askpassHelper, true, null);
+        try {
+            // no workspace, so any key falling back to a temporary file would fail
+            remoteAgent.addIdentities(List.of(
+                    new AgentIdentity(KEY_WITHOUT_PASSWORD_AND_NO_NEWLINE, null, "no passphrase"),
+                    new AgentIdentity(getPrivateKey(), "cloudbees", "with passphrase")), null, launcher, listener);
+            String listed = list(remoteAgent, launcher, listener);
+            assertThat(listed, containsString(KEY_WITHOUT_PASSWORD_FINGERPRINT));
+            assertThat(listed, containsString(KEY_FINGERPRINT));
+        } finally {
+            remoteAgent.stop(launcher, listener);
+        }
+    }
+
+    @Test
+    public void keysNotLoadedFromStdinFallBackToTemporaryFiles() throws Exception {
+        assumeFalse(Functions.isWindows());
+        DumbSlave agent = r.createOnlineSlave();
+        TaskListener listener = StreamTaskListener.fromStdout();
+        Launcher launcher = agent.createLauncher(listener);
+        FilePath ws = agent.getRootPath().child("ws");
+        ws.mkdirs();
+        // without a helper a passphrase cannot be given to ssh-add -
+        ExecRemoteAgent remoteAgent = new ExecRemoteAgent(launcher, listener, true, null, true, null);
+        try {
+            remoteAgent.addIdentities(List.of(
+                    new AgentIdentity(KEY_WITHOUT_PASSWORD_AND_NO_NEWLINE, null, "no passphrase"),
+                    new AgentIdentity(getPrivateKey(), "cloudbees", "with passphrase")), ws, launcher, listener);
+            String listed = list(remoteAgent, launcher, listener);
+            assertThat(listed, containsString(KEY_WITHOUT_PASSWORD_FINGERPRINT));
+            assertThat(listed, containsString(KEY_FINGERPRINT));
+        } finally {
+            remoteAgent.stop(launcher, listener);
+        }
+        assertThat(WorkspaceList.tempDir(ws).list().size(), is(0));
+    }
+
+    private static String list(ExecRemoteAgent remoteAgent, Launcher launcher, TaskListener listener) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(launcher.launch().cmds("ssh-add", "-l").envs(remoteAgent.getEnv()).stdout(out).start()
+                .joinWithTimeout(1, TimeUnit.MINUTES, listener), is(0));
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
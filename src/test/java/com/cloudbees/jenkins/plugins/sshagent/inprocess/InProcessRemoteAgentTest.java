@@ -0,0 +1,105 @@
+package com.cloudbees.jenkins.plugins.sshagent.inprocess;
+
+import com.cloudbees.jenkins.plugins.sshagent.SSHAgentBase;
+import com.cloudbees.jenkins.plugins.sshagent.SSHAgentGlobalConfiguration;
+import hudson.AbortException;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assume.assumeFalse;
+
+public class InProcessRemoteAgentTest extends SSHAgentBase {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Test
+    public void servesIdentitiesWithoutNativeAgent() throws Exception {
+        assumeFalse(Functions.isWindows());
+        startMockSSHServer();
+
+        Launcher launcher = r.createLocalLauncher();
+        TaskListener listener = StreamTaskListener.fromStdout();
+        InProcessRemoteAgent agent = new InProcessRemoteAgent(launcher, listener);
+        String socket = agent.getEnv().get("SSH_AUTH_SOCK");
+        assertThat(agent.getEnv().get("SSH_AGENT_PID"), nullValue());
+        assertThat(new File(socket).exists(), is(true));
+
+        agent.addIdentity(KEY_WITHOUT_PASSWORD_AND_NO_NEWLINE, null, "no passphrase", null, launcher, listener);
+        agent.addIdentity(getPrivateKey(), "cloudbees", "with passphrase", null, launcher, listener);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(launcher.launch().cmds("ssh-add", "-l").envs(agent.getEnv()).stdout(out).start()
+                .joinWithTimeout(1, TimeUnit.MINUTES, listener), is(0));
+        String identities = out.toString(StandardCharsets.UTF_8);
+        assertThat(identities, containsString("no passphrase"));
+        assertThat(identities, containsString("with passphrase"));
+
+        assertThat(launcher.launch().cmds("ssh", "-o", "StrictHostKeyChecking=no", "-o", "NoHostAuthenticationForLocalhost=yes",
+                        "-p", String.valueOf(getAssignedPort()), "-l", "cloudbees", SSH_SERVER_HOST)
+                .envs(agent.getEnv()).stdout(listener).start().joinWithTimeout(1, TimeUnit.MINUTES, listener), is(0));
+
+        agent.stop(launcher, listener);
+        assertThat(new File(socket).exists(), is(false));
+
+        stopMockSSHServer();
+    }
+
+    @Test
+    public void lazyIdentitiesAreAdvertisedAndUnusedOnesReported() throws Exception {
+        assumeFalse(Functions.isWindows());
+        SSHAgentGlobalConfiguration.get().setLazyIdentities(true);
+        startMockSSHServer();
+
+        Launcher launcher = r.createLocalLauncher();
+        TaskListener listener = StreamTaskListener.fromStdout();
+        InProcessRemoteAgent agent = new InProcessRemoteAgent(launcher, listener);
+        // not in OpenSSH format, so decrypted right away
+        agent.addIdentity(getPrivateKey(), "cloudbees", "with passphrase", null, launcher, listener);
+        agent.addIdentity(KEY_WITHOUT_PASSWORD_AND_NO_NEWLINE, null, "deferred", null, launcher, listener);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(launcher.launch().cmds("ssh-add", "-l").envs(agent.getEnv()).stdout(out).start()
+                .joinWithTimeout(1, TimeUnit.MINUTES, listener), is(0));
+        assertThat(out.toString(StandardCharsets.UTF_8), containsString("deferred"));
+
+        assertThat(launcher.launch().cmds("ssh", "-o", "StrictHostKeyChecking=no", "-o", "NoHostAuthenticationForLocalhost=yes",
+                        "-p", String.valueOf(getAssignedPort()), "-l", "cloudbees", SSH_SERVER_HOST)
+                .envs(agent.getEnv()).stdout(listener).start().joinWithTimeout(1, TimeUnit.MINUTES, listener), is(0));
+        assertThat(agent.getUnusedIdentities(launcher), contains("deferred"));
+
+        agent.stop(launcher, listener);
+        stopMockSSHServer();
+    }
+
+    @Test
+    public void wrongPassphrase() throws Exception {
+        assumeFalse(Functions.isWindows());
+        Launcher launcher = r.createLocalLauncher();
+        TaskListener listener = StreamTaskListener.fromStdout();
+        InProcessRemoteAgent agent = new InProcessRemoteAgent(launcher, listener);
+        try {
+            AbortException x = assertThrows(AbortException.class,
+                    () -> agent.addIdentity(getPrivateKey(), "wrong", "with passphrase", null, launcher, listener));
+            assertThat(x.getMessage(), not(containsString("PRIVATE KEY")));
+        } finally {
+            agent.stop(launcher, listener);
+        }
+    }
+}